@@ -0,0 +1,32 @@
+:: ###########################################
+:: #  Executes exportCatalog                 #
+:: #  in a DOS (Windows) environment.        #
+:: #                                         #
+:: #  Writes a table (.tsv) with a summary   #
+:: #  of the .shp files in a directory tree. #
+:: #  Only file headers are read.            #
+:: #                                         #
+:: #  Usage:                                 #
+:: #    exportCatalog -s DIR -d catalog.tsv  #
+:: ###########################################
+
+:: @echo off
+
+:: Main directory where the JGTV.jar file is installed
+set JGTV_HOME="C:/Users/paulo/IdeaProjects/JGTV/out/artifacts/JGTV_jar"
+
+:: Command used to call Java
+set JAVA_CMD="E:/jdk/jdk-14.0.1/bin/java"
+set JAVA_OPT= -Duser.country=US -Duser.language=EN
+:: Additional options
+:: -server -Xmx8092m
+:: ###################### DO NOT EDIT BELOW ###############
+
+:: Set environment
+set JGTV_JAR=%JGTV_HOME%/JGTV.jar
+set DRIVER=com.iidp.jgtv.exportCatalog
+
+:: Execute driver with given command line arguments (there is not max. # arguments)
+%JAVA_CMD% %JAVA_OPT% -cp %JGTV_JAR%  %DRIVER% %*
+
+:end
\ No newline at end of file
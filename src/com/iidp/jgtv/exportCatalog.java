@@ -0,0 +1,123 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv;
+
+import com.iidp.jgtv.files.ShpFile;
+import com.iidp.jgtv.files.ShpProbe;
+import com.iidp.jgtv.others.CLIParser;
+import com.iidp.jgtv.others.FilePath;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Driver to write a summary table of all .shp files in a directory tree.
+ * Only headers are read (see ShpFile.probe), so large archives can be scanned quickly.
+ */
+public class exportCatalog {
+
+    private static List<String> getFilesToProcess(String path) throws Exception {
+        if (!FilePath.checkDirectory(path, false)) {
+            throw new Exception("Source directory does not exist: " + path);
+        }
+        try (var paths = Files.walk(Paths.get(path))) {
+            return paths.filter(Files::isRegularFile)
+                        .map(Path::toString)
+                        .filter(p -> p.toLowerCase().endsWith(".shp"))
+                        .sorted()
+                        .collect(Collectors.toList());
+        }
+    }
+
+    private static String probe(String src) {
+        try {
+            return ShpFile.probe(src).toRow();
+        } catch (Exception e) {
+            // Keep scanning, but leave a trace of the file in the table
+            return src + "\tERROR: " + e.getMessage();
+        }
+    }
+
+    private static CLIParser setupCLIParser(String[] args) throws Exception {
+        CLIParser cli = new CLIParser("JGTV: Write summary of shape files");
+        cli.option().shortName("-s").longName("--src").value("examples").help("path to directory with shape files");
+        cli.option().shortName("-d").longName("--dst").value("tmp/catalog.tsv").help("path to file where the summary should be saved");
+        cli.option().shortName("-t").longName("--threads").value("0").help("number of threads used to read files (0 = all processors)");
+        cli.option().shortName("-v").longName("--verbose").value("false").help("Verbose output").setAsFlag();
+        cli.option().shortName("-h").longName("--help").value("false").help("Print options").setAsFlag();
+
+        cli.parse(args);
+        return cli;
+    }
+
+    /**
+     * Provides an entry to write a catalog of shape files.
+     * @param args: list of strings with command line options that indicate source directory, output file, etc.
+     * @throws Exception
+     */
+    public static void execute(String[] args) throws Exception {
+        var cli = setupCLIParser(args);
+        var src = cli.get("src").asString();
+        var dst = cli.get("dst").asString();
+        var verbose = cli.get("verbose").asBoolean();
+        var threads = cli.get("threads").asInt();
+        if (threads < 1) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+
+        System.out.println("****************************************************************");
+        System.out.println("JGTV version: " + exportToVTK.VERSION);
+        System.out.println("Writing catalog of shape files...");
+        System.out.println("Path to shape files: " + src);
+        System.out.println("Catalog file: " + dst);
+        System.out.println("****************************************************************");
+
+        var t0 = System.nanoTime();
+        var files = getFilesToProcess(src);
+
+        var pool = new ForkJoinPool(threads);
+        List<String> rows;
+        try {
+            rows = pool.submit(() -> files.parallelStream().map(exportCatalog::probe).collect(Collectors.toList())).get();
+        } finally {
+            pool.shutdown();
+        }
+
+        var parent = Paths.get(dst).toAbsolutePath().getParent();
+        FilePath.checkDirectory(parent.toString(), true);
+        try (var out = new PrintStream(dst)) {
+            out.println(ShpProbe.header());
+            for (String row: rows) {
+                out.println(row);
+                if (verbose) System.out.println(row);
+            }
+        }
+
+        var t1 = System.nanoTime();
+        System.out.printf("%d files in %.2f s\n", files.size(), (t1 - t0) * 1e-9);
+    }
+
+    public static void main(String[] args) throws Exception {
+        execute(args);
+        System.out.println("*** ALL DONE ***");
+    }
+}
@@ -19,13 +19,24 @@ package com.iidp.jgtv;
 import com.iidp.jgtv.files.DbfFile;
 import com.iidp.jgtv.files.PrjFile;
 import com.iidp.jgtv.files.ShpFile;
+import com.iidp.jgtv.files.TailReader;
+import com.iidp.jgtv.files.dbf.FieldCategories;
+import com.iidp.jgtv.files.dbf.FieldFilter;
 import com.iidp.jgtv.files.shp.AShape;
+import com.iidp.jgtv.files.shp.ReadOptions;
+import com.iidp.jgtv.others.AsyncFileReader;
+import com.iidp.jgtv.others.BoundingBox;
 import com.iidp.jgtv.others.CLIParser;
+import com.iidp.jgtv.others.Echo;
 import com.iidp.jgtv.others.FilePath;
+import com.iidp.jgtv.others.VtkCollection;
+import com.iidp.jgtv.others.ZipBundle;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Driver to process and export .shp files as VTK grids.
@@ -33,7 +44,8 @@ import java.util.List;
 public class exportToVTK {
     public static String VERSION = "0.1";
 
-    private static void processFile(String src, String outDir, boolean setAttributes, boolean verbose) throws Exception {
+    private static void processFile(String src, String outDir, boolean setAttributes, Set<String> fields, String reader, int threads,
+                                    ReadOptions options, FieldFilter filter, boolean verbose) throws Exception {
         System.out.println("Processing file: " + src);
 
         assert FilePath.fileExist(src);
@@ -51,22 +63,151 @@ public class exportToVTK {
             System.out.println("VTK file: " + vtkname);
         }
 
-        var shp = ShpFile.read(src, verbose);
+        // Records selected by attributes are different for each file
+        options.records(filter == null ? null : DbfFile.select(dbfname, filter));
+
+        ShpFile shp = null;
+        if ((options.isFiltered() || !options.isReadZ()) && !(reader.equals("columnar") || reader.equals("mmap") || reader.equals("async") || reader.equals("offheap"))) {
+            throw new Exception("Selection of records and --flat are only supported by columnar, mmap, async and offheap readers");
+        }
+
+        if (reader.equals("columnar")) {
+            shp = ShpFile.readColumnar(src, options, verbose);
+        } else if (reader.equals("parallel")) {
+            shp = ShpFile.readParallel(src, threads, verbose);
+        } else if (reader.equals("mmap")) {
+            shp = ShpFile.readMapped(src, options, verbose);
+        } else if (reader.equals("async")) {
+            shp = ShpFile.readAsync(src, options, AsyncFileReader.DEFAULT_CHUNK_SIZE, AsyncFileReader.DEFAULT_NBUFFERS, verbose);
+        } else if (reader.equals("offheap")) {
+            // Temporary files can be as large as the geometry, so they are stored next to the output
+            shp = ShpFile.readOffHeap(src, options, outDir, verbose);
+        } else if (reader.equals("stream")) {
+            shp = ShpFile.read(src, verbose);
+        } else {
+            throw new Exception("Unknown reader: " + reader);
+        }
         var prj = PrjFile.read(prjname, verbose);
 
         if (setAttributes) {
-            var dbf = DbfFile.read(dbfname, verbose);
-            var attrs = dbf.getFieldsAsLists();
-            shp.setAttrs(attrs);
+            if (reader.equals("async") && fields == null) {
+                shp.setAttrs(DbfFile.readAsync(dbfname, verbose).getFieldsAsLists());
+            } else if (reader.equals("parallel")) {
+                shp.setColumns(DbfFile.readParallel(dbfname, fields, threads, verbose).getColumns());
+            } else {
+                // Values are decoded straight into arrays, without boxing them
+                shp.setColumns(DbfFile.readColumnar(dbfname, fields, verbose).getColumns());
+            }
         }
 
         shp.addComment(prj.getContent());
         shp.toVTK(vtkname);
+        shp.close();
+    }
+
+    /**
+     * Exports only the records appended to a .shp file since the previous run (see TailReader).
+     * New records are written to a new VTK file, and a collection (.pvd) groups all the files
+     * written so far. If the file was truncated or rewritten, the previous files are deleted
+     * and the whole file is exported again. Text attributes have the same codes in all files,
+     * and their values are written to a single file next to the collection.
+     */
+    private static void processTail(String src, String outDir, boolean setAttributes, Set<String> fields,
+                                    ReadOptions options, FieldFilter filter, boolean verbose) throws Exception {
+        System.out.println("Processing new records of file: " + src);
+
+        assert FilePath.fileExist(src);
+        assert FilePath.checkDirectory(outDir, false);
+
+        var dirname = FilePath.getBasename(src);
+        var rootname = FilePath.getFilenameWithoutExtension(src);
+        var dbfname = FilePath.join(dirname, rootname + ".dbf");
+        var prjname = FilePath.join(dirname, rootname + ".prj");
+        var vtkname = FilePath.join(outDir, rootname);
+
+        // Position of the last record read is stored next to the output
+        var tail = TailReader.open(src, FilePath.isFile(dbfname) ? dbfname : null, vtkname + ".tail");
+        if (verbose) {
+            System.out.println(tail);
+        }
+        var shp = tail.readNew(options, filter, setAttributes, fields, verbose);
+        for (String f: tail.getStaleOutputs()) {
+            new File(f).delete();
+        }
+
+        if (shp != null) {
+            shp.addComment(PrjFile.read(prjname, verbose).getContent());
+            shp.setDictionaries(tail.getDictionaries());
+            tail.addOutput(shp.toVTK(vtkname + "_" + tail.getOutputs().size()));
+        }
+        var pvd = VtkCollection.write(vtkname, tail.getOutputs());
+        var categories = ShpFile.categoriesPath(pvd);
+        if (tail.getDictionaries().isEmpty()) {
+            new File(categories).delete();
+        } else {
+            FieldCategories.write(categories, tail.getDictionaries());
+            Echo.msg("  Categories of text attributes written to: " + categories, 0);
+        }
+        tail.save();
+        System.out.println("DONE. Collection of " + tail.getOutputs().size() + " files exported to: " + pvd);
+    }
+
+    /**
+     * Processes all .shp files stored in a zip archive. Files are read from the archive
+     * without extracting them, so only the columnar and mmap readers are supported.
+     */
+    private static void processZip(String path, String outDir, boolean setAttributes, Set<String> fields, String reader,
+                                   ReadOptions options, FieldFilter filter, boolean verbose) throws Exception {
+        System.out.println("Processing archive: " + path);
+        if (!(reader.equals("columnar") || reader.equals("mmap"))) {
+            throw new Exception("Zip archives are only supported by columnar and mmap readers");
+        }
+
+        var zip = ZipBundle.open(path);
+        if (verbose) {
+            System.out.println(zip);
+        }
+        for (String src: zip.getNames("shp")) {
+            System.out.println("Processing file: " + src);
+            var dbfname = zip.find(FilePath.replaceExtension(src, "dbf"));
+            var prjname = zip.find(FilePath.replaceExtension(src, "prj"));
+            var vtkname = FilePath.join(outDir, FilePath.getFilenameWithoutExtension(src));
+            if (verbose) {
+                System.out.println("Dbf file: " + dbfname);
+                System.out.println("VTK file: " + vtkname);
+            }
+            if (dbfname == null && (setAttributes || filter != null)) {
+                throw new Exception("Missing .dbf file of " + src + " in: " + path);
+            }
+
+            options.records(filter == null ? null : DbfFile.select(zip, dbfname, filter));
+            var shp = reader.equals("columnar") ? ShpFile.readColumnar(zip, src, options, verbose) : ShpFile.readMapped(zip, src, options, verbose);
+
+            if (setAttributes) {
+                shp.setColumns(DbfFile.readColumnar(zip, dbfname, fields, verbose).getColumns());
+            }
+
+            // Some bundles do not include the projection
+            if (prjname != null) {
+                shp.addComment(PrjFile.read(zip, prjname, verbose).getContent());
+            }
+            shp.toVTK(vtkname);
+        }
     }
 
     private static void processFiles(List<String> srcFiles, CLIParser cli) throws Exception {
         var verbose = cli.get("verbose").asBoolean();
         var setAttributes = cli.get("attrib").asBoolean();
+        var reader = cli.get("reader").asString();
+        var threads = cli.get("threads").asInt();
+        var bbox = cli.get("bbox").asString();
+        var window = bbox.isEmpty() ? null : BoundingBox.parse(bbox);
+        // M values are not exported
+        var options = new ReadOptions().window(window).readZ(!cli.get("flat").asBoolean()).readM(false);
+        var where = cli.get("where").asString();
+        var filter = where.isEmpty() ? null : FieldFilter.parse(where);
+        var incremental = cli.get("incremental").asBoolean();
+        var fields = parseFields(cli.get("fields").asString());
         var default_z = cli.get("elev").asDouble();
         AShape.setDefaultZValue(default_z);
 
@@ -74,8 +215,27 @@ public class exportToVTK {
         FilePath.checkDirectory(outDir, true);
 
         for(String path: srcFiles) {
-            processFile(path, outDir, setAttributes, verbose);
+            if (ZipBundle.isZip(path)) {
+                if (incremental) {
+                    throw new Exception("Incremental export is not supported for zip archives: " + path);
+                }
+                processZip(path, outDir, setAttributes, fields, reader, options, filter, verbose);
+            } else if (incremental) {
+                processTail(path, outDir, setAttributes, fields, options, filter, verbose);
+            } else {
+                processFile(path, outDir, setAttributes, fields, reader, threads, options, filter, verbose);
+            }
+        }
+    }
+
+    /** Returns the names in a list such as NAME1,NAME2, or null if the list is empty (all fields) */
+    private static Set<String> parseFields(String list) {
+        if (list.isBlank()) return null;
+        var names = new LinkedHashSet<String>();
+        for (String n: list.split(",")) {
+            if (!n.isBlank()) names.add(n.strip());
         }
+        return names;
     }
 
     private static List<String> getFilesToProcess(String path) throws Exception {
@@ -87,6 +247,11 @@ public class exportToVTK {
             for (File shp: shpFiles) {
                 files.add(shp.toString());
             }
+            // Shape files distributed as zip archives are read without extracting them
+            var zipFiles = FilePath.getFileList(path, "(?i)[\\w-]*\\.zip");
+            for (File zip: zipFiles) {
+                files.add(zip.toString());
+            }
         } else {
             throw new Exception("Source path does not exist: " + path);
         }
@@ -96,10 +261,17 @@ public class exportToVTK {
     private static CLIParser setupCLIParser(String[] args) throws Exception {
         CLIParser cli = new CLIParser("JGTV: Export shape files to VTK");
         //cli.option().shortName("-s").longName("--src").value("examples/ex1_SimpleShapes/multi_points.shp").help("path to shape file or directory");
-        cli.option().shortName("-s").longName("--src").value("examples/ex1_SimpleShapes").help("path to shape file or directory");
+        cli.option().shortName("-s").longName("--src").value("examples/ex1_SimpleShapes").help("path to shape file, zip archive with shape files, or directory");
         cli.option().shortName("-d").longName("--dst").value("tmp/ex1_SimpleShapes").help("to directory where VTK files should be saved");
         cli.option().shortName("-e").longName("--elev").value("0.0").help("default elevation for files that only have (x,y) coordinates");
         cli.option().shortName("-a").longName("--attrib").value("true").help("include attributes in .dbf file in exported VTK file");
+        cli.option().shortName("-n").longName("--fields").value("").help("only export these attributes, e.g. --fields=NAME1,NAME2 (default: all)");
+        cli.option().shortName("-r").longName("--reader").value("columnar").help("method used to read .shp files: columnar, parallel, mmap, async, offheap or stream");
+        cli.option().shortName("-b").longName("--bbox").value("").help("only export shapes that intersect a window, e.g. --bbox=xmin,ymin,xmax,ymax");
+        cli.option().shortName("-w").longName("--where").value("").help("only export records whose attribute matches FIELD=VALUE or FIELD=MIN:MAX");
+        cli.option().shortName("-f").longName("--flat").value("false").help("ignore z coordinates of files and use default elevation").setAsFlag();
+        cli.option().shortName("-i").longName("--incremental").value("false").help("only export records appended since the previous run, as a new file of a .pvd collection").setAsFlag();
+        cli.option().shortName("-t").longName("--threads").value("0").help("number of threads used by parallel readers (0 = all processors)");
         //cli.option().shortName("-g").longName("--gui").value("false").help("run graphical interface").setAsFlag();
         cli.option().shortName("-v").longName("--verbose").value("false").help("Verbose output").setAsFlag();
         cli.option().shortName("-h").longName("--help").value("false").help("Print options").setAsFlag();
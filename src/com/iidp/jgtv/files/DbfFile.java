@@ -18,14 +18,26 @@ package com.iidp.jgtv.files;
 
 import com.iidp.jgtv.files.dbf.DbfRecord;
 import com.iidp.jgtv.files.dbf.FIELD_TYPE;
+import com.iidp.jgtv.files.dbf.FieldColumn;
 import com.iidp.jgtv.files.dbf.FieldDescriptor;
+import com.iidp.jgtv.files.dbf.FieldFilter;
 import com.iidp.jgtv.files.dbf.FieldList;
+import com.iidp.jgtv.others.AsyncFileReader;
 import com.iidp.jgtv.others.Echo;
 import com.iidp.jgtv.others.LittleEndian;
+import com.iidp.jgtv.others.LittleEndianInput;
+import com.iidp.jgtv.others.MappedSource;
+import com.iidp.jgtv.others.ZipBundle;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Implements a simple DBF parser to read records stored as .dbf files.
@@ -64,6 +76,21 @@ public class DbfFile {
     List<FieldDescriptor> fields;
     /** List of records in the file */
     List<DbfRecord> records;
+    /** Values of each field, if the file was read by readColumnar. Records are not stored in that case. */
+    List<FieldColumn> columns;
+
+    /** Returns number of records */
+    public int getNRecords() { return nrecords; }
+    /** Returns number of fields in each record */
+    public int getNFields() { return nfields; }
+    /** Returns size of header in bytes. Records start at this position. */
+    public int getSizeHeader() { return sizeHeader; }
+    /** Returns size of each record in bytes */
+    public int getSizeRecords() { return sizeRecords; }
+    /** Returns list of descriptor for the fields included in each record */
+    public List<FieldDescriptor> getFields() { return fields; }
+    /** Returns values of each field, or null if the file was not read by readColumnar */
+    public List<FieldColumn> getColumns() { return columns; }
 
     public DbfFile(String _src) {
         src = _src;
@@ -108,10 +135,17 @@ public class DbfFile {
         b.read(); b.read(); b.read(); b.read();
 
         //16	1 byte	Field length in binary[note 1]
-        var flength = b.readByte();
+        var flength = b.readUnsignedByte();
 
         // 17	1 byte	Field decimal count in binary
-        var fdecimal = b.readByte();
+        var fdecimal = b.readUnsignedByte();
+
+        // Text fields have no decimals, so some programs use this byte as the
+        // high byte of the length of text fields longer than 255 characters.
+        if (ftype.charAt(0) == FIELD_TYPE.TEXT.shortName) {
+            flength += 256 * fdecimal;
+            fdecimal = 0;
+        }
         //System.out.printf("flength: %d  fdecimal: %d\n", flength, fdecimal);
 
         // The next 14 bytes contain different type of information that is not important for the
@@ -138,22 +172,26 @@ public class DbfFile {
         //System.out.printf("Date: %d/%d/%d\n", DD, MM, YY);
 
         // 4-7	32-bit number	Number of records in the database file
-        nrecords = LittleEndian.readInt(b);
+        var nr = Integer.toUnsignedLong(LittleEndian.readInt(b));
+        if (nr > Integer.MAX_VALUE) {
+            throw new Exception("Too many records: " + nr);
+        }
+        nrecords = (int) nr;
         //System.out.printf("Number of records: %d \n", nrecords);
 
-        // 8-9	16-bit number	Number of bytes in the header
-        var nbh = LittleEndian.readShort(b);
-        //System.out.printf("Number of bytes: %d \n", 2 * nbh);
-        sizeHeader = 2 * nbh;
+        // 8-9	16-bit number	Number of bytes in the header (unsigned)
+        var nbh = Short.toUnsignedInt(LittleEndian.readShort(b));
+        //System.out.printf("Number of bytes: %d \n", nbh);
+        sizeHeader = nbh;
 
         // # field descriptors.
         nfields = (int)( (nbh - 33) / 32); // Each field descriptor has 32 bytes and 32 bytes header + 1 byte end of header
         //System.out.printf("Number of field descriptors: %d \n", nf);
 
-        //10-11	16-bit number	Number of bytes in the record section
-        var nbr = LittleEndian.readShort(b);
-        //System.out.printf("Number of bytes in records: %d \n", 2*nbr);
-        sizeRecords = 2 * nbr;
+        //10-11	16-bit number	Number of bytes in each record (unsigned)
+        var nbr = Short.toUnsignedInt(LittleEndian.readShort(b));
+        //System.out.printf("Number of bytes in records: %d \n", nbr);
+        sizeRecords = nbr;
 
         //12-13	2 bytes	Reserved; fill with 0
         b.read(); b.read();
@@ -211,15 +249,336 @@ public class DbfFile {
     public static DbfFile read(String path, boolean verbose) throws Exception {
         var src = new File(path);
         Echo.msg("Reading .dbf from: " + src.getAbsolutePath(), 0);
+        return read(src.getAbsolutePath(), new FileInputStream(src), verbose);
+    }
+
+    /**
+     * Reads a .dbf file stored in a zip archive, without extracting it to disk.
+     *
+     * @param zip archive that contains the file
+     * @param name name of the .dbf file in the archive
+     * @param verbose if true print summary of the file
+     * @return a DbfFile with all records
+     * @throws Exception
+     */
+    public static DbfFile read(ZipBundle zip, String name, boolean verbose) throws Exception {
+        Echo.msg("Reading .dbf from: " + zip.src + "/" + name, 0);
+        return read(zip.src + "/" + name, zip.getInputStream(name), verbose);
+    }
+
+    private static DbfFile read(String name, InputStream in, boolean verbose) throws Exception {
+        var dbf = new DbfFile(name);
+        try (var b = new LittleEndianInput(new BufferedInputStream(in))) {
+            dbf.readHeader(b);
+            dbf.readRecords(b);
+        }
+
+        if (verbose) {
+            System.out.println(dbf);
+        }
+        Echo.msg("   Done reading .dbf file.", 0);
+        return dbf;
+    }
+
+    /**
+     * Reads a .dbf file decoding the values of each field straight into arrays of
+     * primitives (see FieldColumn), instead of creating a record with boxed values
+     * for each row. Records are read in blocks of rows, and no objects are created
+     * for numeric, logical and date values.
+     *
+     * @param path path to .dbf file
+     * @param verbose if true print summary of the file
+     * @return a DbfFile with the values of each field (see getColumns) and no records
+     * @throws Exception
+     */
+    public static DbfFile readColumnar(String path, boolean verbose) throws Exception {
+        return readColumnar(path, null, verbose);
+    }
+
+    /**
+     * Reads only some fields of a .dbf file into columns (see readColumnar).
+     * Bytes of other fields are skipped without decoding them.
+     *
+     * @param path path to .dbf file
+     * @param names names of the fields to read, or null to read all fields
+     * @return a DbfFile with the values of the selected fields (see getColumns) and no records
+     * @throws Exception if a field does not exist
+     */
+    public static DbfFile read(String path, Set<String> names) throws Exception {
+        return readColumnar(path, names, false);
+    }
+
+    /**
+     * Reads some fields of a .dbf file into columns (see readColumnar).
+     *
+     * @param path path to .dbf file
+     * @param names names of the fields to read, or null to read all fields
+     * @param verbose if true print summary of the file
+     * @return a DbfFile with the values of the selected fields in the same order as in the file
+     * @throws Exception if a field does not exist
+     */
+    public static DbfFile readColumnar(String path, Set<String> names, boolean verbose) throws Exception {
+        var src = new File(path);
+        Echo.msg("Reading .dbf (columnar) from: " + src.getAbsolutePath(), 0);
+        return readColumnar(src.getAbsolutePath(), new FileInputStream(src), names, verbose);
+    }
+
+    /**
+     * Reads a .dbf file stored in a zip archive into columns (see readColumnar).
+     *
+     * @param zip archive that contains the file
+     * @param name name of the .dbf file in the archive
+     * @param verbose if true print summary of the file
+     * @return a DbfFile with the values of each field and no records
+     * @throws Exception
+     */
+    public static DbfFile readColumnar(ZipBundle zip, String name, boolean verbose) throws Exception {
+        return readColumnar(zip, name, null, verbose);
+    }
+
+    /**
+     * Reads some fields of a .dbf file stored in a zip archive into columns (see readColumnar).
+     *
+     * @param zip archive that contains the file
+     * @param name name of the .dbf file in the archive
+     * @param names names of the fields to read, or null to read all fields
+     * @param verbose if true print summary of the file
+     * @return a DbfFile with the values of the selected fields and no records
+     * @throws Exception if a field does not exist
+     */
+    public static DbfFile readColumnar(ZipBundle zip, String name, Set<String> names, boolean verbose) throws Exception {
+        Echo.msg("Reading .dbf (columnar) from: " + zip.src + "/" + name, 0);
+        return readColumnar(zip.src + "/" + name, zip.getInputStream(name), names, verbose);
+    }
+
+    private static DbfFile readColumnar(String name, InputStream in, Set<String> names, boolean verbose) throws Exception {
+        var dbf = new DbfFile(name);
+        try (var b = new LittleEndianInput(new BufferedInputStream(in))) {
+            dbf.readHeader(b);
+            dbf.readColumns(b, names);
+        }
+
+        if (verbose) {
+            System.out.println(dbf);
+        }
+        Echo.msg("   Done reading .dbf file.", 0);
+        return dbf;
+    }
+
+    /** Number of bytes of records read at once by readColumns */
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    /**
+     * Creates an empty column for each selected field and stores the position
+     * of each one in a record, after the 1 byte deleted flag.
+     *
+     * @param names names of the fields to decode, or null to decode all fields
+     * @param offsets position of each selected field in a record (output)
+     * @param capacity expected number of values of each column
+     * @return size of a record computed from the length of all fields
+     * @throws Exception if a field does not exist
+     */
+    private int createColumns(Set<String> names, int[] offsets, int capacity) throws Exception {
+        var size = 1;
+        columns = new ArrayList<FieldColumn>();
+        for (FieldDescriptor fd: fields) {
+            assert fd.flength > 0 : "Negative length: " + fd;
+            if (names == null || names.contains(fd.name)) {
+                offsets[columns.size()] = size;
+                columns.add(new FieldColumn(fd, capacity));
+            }
+            size += fd.flength;
+        }
+        if (names != null && columns.size() < names.size()) {
+            for (String n: names) {
+                if (fields.stream().noneMatch(fd -> fd.name.equals(n))) {
+                    throw new Exception("Field " + n + " does not exist in: " + src);
+                }
+            }
+        }
+        return size;
+    }
+
+    /** Decodes the selected fields of n records stored in block, one field at a time */
+    private static void decodeBlock(byte[] block, int n, int size, int[] offsets, List<FieldColumn> columns) {
+        for (int j = 0; j < columns.size(); j++) {
+            var c = columns.get(j);
+            for (int r = 0; r < n; r++) {
+                c.decode(block, r * size + offsets[j]);
+            }
+        }
+    }
+
+    /**
+     * Reads the records that follow the header into columns.
+     *
+     * @param b stream positioned at the first record to read. It reads nrecords records.
+     * @param names names of the fields to decode, or null to decode all fields
+     * @throws Exception if a field does not exist
+     */
+    private void readColumns(DataInputStream b, Set<String> names) throws Exception {
+        var offsets = new int[nfields];
+        var size = createColumns(names, offsets, nrecords);
+
+        // Records are read in blocks and decoded one field at a time, from all records in the block.
+        // Bytes of fields that are not selected are never decoded.
+        var rowsPerBlock = Math.max(1, BLOCK_SIZE / size);
+        var block = new byte[rowsPerBlock * size];
+        for (int i = 0; i < nrecords; i += rowsPerBlock) {
+            var n = Math.min(rowsPerBlock, nrecords - i);
+            b.readFully(block, 0, n * size);
+            decodeBlock(block, n, size, offsets, columns);
+        }
+        for (FieldColumn c: columns) {
+            c.trim();
+        }
+    }
+
+    /** Minimum number of records decoded by each task of readParallel */
+    private static final int MIN_RECORDS_PER_TASK = 1 << 14;
+
+    /**
+     * Reads a .dbf file into columns (see readColumnar) decoding ranges of records concurrently.
+     * Records have a fixed size, so the file is mapped into memory and split into contiguous
+     * ranges of records. Each range is decoded into its own columns by a task of a ForkJoinPool,
+     * and the columns of all ranges are joined in the same order as in the file.
+     *
+     * @param path path to .dbf file
+     * @param names names of the fields to read, or null to read all fields
+     * @param parallelism number of threads used to decode records. If it is less than 1,
+     *                    the number of available processors is used.
+     * @param verbose if true print summary of the file
+     * @return a DbfFile with the values of the selected fields (see getColumns) and no records
+     * @throws Exception if a field does not exist
+     */
+    public static DbfFile readParallel(String path, Set<String> names, int parallelism, boolean verbose) throws Exception {
+        if (parallelism < 1) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        var src = new File(path);
+        Echo.msg("Reading .dbf (" + parallelism + " threads) from: " + src.getAbsolutePath(), 0);
+
+        var source = MappedSource.map(path);
+        var dbf = readHeader(src.getAbsolutePath(), source);
+        var offsets = new int[dbf.nfields];
+        var size = dbf.createColumns(names, offsets, 0);
+        if ((long) dbf.sizeHeader + (long) dbf.nrecords * size > source.size) {
+            throw new EOFException("Missing records in: " + src.getAbsolutePath());
+        }
+
+        // Several ranges per thread, so threads that finish early can take more work
+        var ntasks = Math.max(1, Math.min(8 * parallelism, dbf.nrecords / MIN_RECORDS_PER_TASK));
+        var parts = new ArrayList<List<FieldColumn>>();
+        var pool = new ForkJoinPool(parallelism);
+        try {
+            var tasks = new ArrayList<ForkJoinTask<List<FieldColumn>>>();
+            for (int k = 0; k < ntasks; k++) {
+                var first = (int) ((long) dbf.nrecords * k / ntasks);
+                var last = (int) ((long) dbf.nrecords * (k + 1) / ntasks);
+                tasks.add(pool.submit(() -> dbf.decodeRange(source.duplicate(), first, last, size, offsets)));
+            }
+            for (ForkJoinTask<List<FieldColumn>> t: tasks) {
+                parts.add(t.get());
+            }
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+        } finally {
+            pool.shutdown();
+        }
+
+        for (int j = 0; j < dbf.columns.size(); j++) {
+            var range = new ArrayList<FieldColumn>();
+            for (List<FieldColumn> p: parts) {
+                range.add(p.get(j));
+            }
+            dbf.columns.set(j, FieldColumn.concat(dbf.columns.get(j).fd, range));
+        }
+
+        if (verbose) {
+            System.out.println(dbf);
+        }
+        Echo.msg("   Done reading .dbf file.", 0);
+        return dbf;
+    }
+
+    /**
+     * Decodes the selected fields of a range of records of a mapped file into new columns.
+     *
+     * @param source mapped file, only used by the calling thread
+     * @param first position of the first record (0-based)
+     * @param last position after the last record
+     * @return a column for each selected field
+     */
+    private List<FieldColumn> decodeRange(MappedSource source, int first, int last, int size, int[] offsets) throws Exception {
+        var range = new ArrayList<FieldColumn>();
+        for (FieldColumn c: columns) {
+            range.add(new FieldColumn(c.fd, last - first));
+        }
+        var rowsPerBlock = Math.max(1, BLOCK_SIZE / size);
+        var block = new byte[rowsPerBlock * size];
+        for (int i = first; i < last; i += rowsPerBlock) {
+            var n = Math.min(rowsPerBlock, last - i);
+            var b = source.at(sizeHeader + (long) i * size, n * size);
+            b.get(b.position(), block, 0, n * size);
+            decodeBlock(block, n, size, offsets, range);
+        }
+        for (FieldColumn c: range) {
+            c.trim();
+        }
+        return range;
+    }
+
+    /**
+     * Reads only some consecutive records of a .dbf file into columns, e.g. the records
+     * appended to the file since it was last read (see TailReader). Previous records are
+     * skipped without parsing them.
+     *
+     * @param path path to .dbf file
+     * @param first position (0-based) of the first record to read
+     * @param count maximum number of records to read
+     * @param names names of the fields to read, or null to read all fields
+     * @param verbose if true print summary of the file
+     * @return a DbfFile with the values of the records from first to first + count, or less if the file ends before
+     * @throws Exception
+     */
+    public static DbfFile read(String path, int first, int count, Set<String> names, boolean verbose) throws Exception {
+        var src = new File(path);
+        Echo.msg(String.format("Reading .dbf records %d to %d from: %s", first, first + count, src.getAbsolutePath()), 0);
 
         var dbf = new DbfFile(src.getAbsolutePath());
-        var fi = new FileInputStream(src);
-        var bi = new BufferedInputStream(fi);
-        var b = new DataInputStream(bi);
+        try (var b = new LittleEndianInput(new BufferedInputStream(new FileInputStream(src)))) {
+            dbf.readHeader(b);
+            first = Math.min(first, dbf.nrecords);
+            dbf.nrecords = Math.min(count, dbf.nrecords - first);
+            b.skipNBytes((long) first * dbf.sizeRecords);
+            dbf.readColumns(b, names);
+        }
+
+        if (verbose) {
+            System.out.println(dbf);
+        }
+        Echo.msg("   Done reading .dbf file.", 0);
+        return dbf;
+    }
 
-        dbf.readHeader(b);
-        dbf.readRecords(b);
-        b.close();
+    /**
+     * Reads a .dbf file using asynchronous I/O (see AsyncFileReader), so the next
+     * chunks of the file are read from disk while the records of the current one are parsed.
+     *
+     * @param path path to .dbf file
+     * @param verbose if true print summary of the file
+     * @return a DbfFile with all records
+     * @throws Exception
+     */
+    public static DbfFile readAsync(String path, boolean verbose) throws Exception {
+        var src = new File(path);
+        Echo.msg("Reading .dbf (async) from: " + src.getAbsolutePath(), 0);
+
+        var dbf = new DbfFile(src.getAbsolutePath());
+        try (var b = new LittleEndianInput(new AsyncFileReader(path).toInputStream())) {
+            dbf.readHeader(b);
+            dbf.readRecords(b);
+        }
 
         if (verbose) {
             System.out.println(dbf);
@@ -228,8 +587,104 @@ public class DbfFile {
         return dbf;
     }
 
+    /**
+     * Reads only the header and field descriptors of a .dbf file.
+     *
+     * @param path path to .dbf file
+     * @return a DbfFile without records
+     * @throws Exception
+     */
+    public static DbfFile readHeader(String path) throws Exception {
+        var src = new File(path);
+        var dbf = new DbfFile(src.getAbsolutePath());
+        try (var b = new LittleEndianInput(new BufferedInputStream(new FileInputStream(src)))) {
+            dbf.readHeader(b);
+        }
+        return dbf;
+    }
+
+    /** Reads only the header and field descriptors of a mapped .dbf file (see DbfTable) */
+    static DbfFile readHeader(String name, MappedSource source) throws Exception {
+        var dbf = new DbfFile(name);
+        try (var b = new LittleEndianInput(source.toInputStream())) {
+            dbf.readHeader(b);
+        }
+        return dbf;
+    }
+
+    /**
+     * Selects the records of a .dbf file whose value of a field matches a condition.
+     * Only the text of that field is extracted from each record, other fields are not decoded.
+     *
+     * @param path path to .dbf file
+     * @param filter condition on the value of a field
+     * @return set with the positions (0-based) of the selected records
+     * @throws Exception if the field does not exist
+     */
+    public static BitSet select(String path, FieldFilter filter) throws Exception {
+        var src = new File(path);
+        return select(src.getAbsolutePath(), new FileInputStream(src), filter);
+    }
+
+    /**
+     * Selects the records of a .dbf file stored in a zip archive (see select).
+     *
+     * @param zip archive that contains the file
+     * @param name name of the .dbf file in the archive
+     * @param filter condition on the value of a field
+     * @return set with the positions (0-based) of the selected records
+     * @throws Exception if the field does not exist
+     */
+    public static BitSet select(ZipBundle zip, String name, FieldFilter filter) throws Exception {
+        return select(zip.src + "/" + name, zip.getInputStream(name), filter);
+    }
+
+    private static BitSet select(String path, InputStream in, FieldFilter filter) throws Exception {
+        Echo.msg("Selecting records " + filter + " from: " + path, 0);
+
+        var dbf = new DbfFile(path);
+        var selected = new BitSet();
+        try (var b = new LittleEndianInput(new BufferedInputStream(in))) {
+            dbf.readHeader(b);
+
+            // Position of the field in each record, after the 1 byte deleted flag
+            FieldDescriptor fd = null;
+            var offset = 1;
+            var size = 1;
+            for (FieldDescriptor f: dbf.fields) {
+                if (f.name.equals(filter.name)) {
+                    fd = f;
+                    offset = size;
+                }
+                size += f.flength;
+            }
+            if (fd == null) {
+                throw new Exception("Field " + filter.name + " does not exist in: " + path);
+            }
+
+            var bytes = new byte[size];
+            var length = fd.flength;
+            for (int i = 0; i < dbf.nrecords; i++) {
+                b.readFully(bytes);
+                var str = new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+                if (filter.test(fd, str)) {
+                    selected.set(i);
+                }
+            }
+        }
+
+        Echo.msg(String.format("   Selected %d of %d records.", selected.cardinality(), dbf.nrecords), 0);
+        return selected;
+    }
+
     public List<FieldList> getFieldsAsLists() {
         var lists = new ArrayList<FieldList>();
+        if (columns != null) {
+            for (FieldColumn c: columns) {
+                lists.add(c.toFieldList());
+            }
+            return lists;
+        }
         for (int i = 0; i < nfields; i++) {
             var fd = fields.get(i);
             var lr = DbfRecord.getListOfField(records, i);
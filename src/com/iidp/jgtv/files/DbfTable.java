@@ -0,0 +1,250 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files;
+
+import com.iidp.jgtv.files.dbf.FieldColumn;
+import com.iidp.jgtv.files.dbf.FieldDescriptor;
+import com.iidp.jgtv.files.dbf.NumberParser;
+import com.iidp.jgtv.others.Echo;
+import com.iidp.jgtv.others.MappedSource;
+import com.iidp.jgtv.others.ZipBundle;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Gives random access to the records of a .dbf file mapped into memory.
+ *
+ * Records have a fixed size, so record i starts at (size of header + i * size of records),
+ * and each field starts at a fixed position in the record computed from the length of the
+ * previous fields. Values are read straight from the mapped file when they are requested,
+ * so a single value can be read without reading the records before it, and the file
+ * does not have to fit in the heap.
+ *
+ * Each table has a small buffer to copy the bytes of a value, so it should only be used
+ * by one thread. Use duplicate to get a table that shares the mapping for another thread.
+ *
+ * Usage:
+ *    var t = DbfTable.open("examples/ex1_SimpleShapes/points.dbf");
+ *    var col = t.getColumnIndex("Value");
+ *    for (int i = 0; i < t.getNRows(); i++) {
+ *        sum += t.getDouble(i, col);
+ *    }
+ */
+public class DbfTable {
+    /** Path to .dbf file */
+    public final String src;
+    /** Mapped content of the file */
+    private final MappedSource source;
+    /** Header of the file, without records */
+    private final DbfFile header;
+    /** Number of records */
+    private final int nrows;
+    /** Position of the first record, and size of each record in bytes */
+    private final long start;
+    private final int rowSize;
+    /** Position of each field in a record, after the 1 byte deleted flag */
+    private final int[] offsets;
+    /** Buffer used to copy the bytes of a value */
+    private byte[] scratch;
+
+    private DbfTable(String _src, MappedSource _source, DbfFile _header) {
+        src = _src;
+        source = _source;
+        header = _header;
+        start = header.getSizeHeader();
+        rowSize = header.getSizeRecords();
+
+        var fields = header.getFields();
+        offsets = new int[fields.size()];
+        var pos = 1;
+        var maxLength = 1;
+        for (int j = 0; j < offsets.length; j++) {
+            offsets[j] = pos;
+            pos += fields.get(j).flength;
+            maxLength = Math.max(maxLength, fields.get(j).flength);
+        }
+        assert pos <= rowSize : "Fields are larger than records: " + pos + " > " + rowSize;
+        scratch = new byte[maxLength];
+
+        // Records that are not complete in the file are not included
+        var complete = (source.size - start) / Math.max(1, rowSize);
+        nrows = (int) Math.max(0, Math.min(header.getNRecords(), complete));
+    }
+
+    /**
+     * Maps a .dbf file into memory. Only the header is read.
+     *
+     * @param path path to .dbf file
+     * @return a table to read the values of the records
+     * @throws Exception
+     */
+    public static DbfTable open(String path) throws Exception {
+        var src = new File(path).getAbsolutePath();
+        Echo.msg("Mapping .dbf from: " + src, 0);
+        var source = MappedSource.map(path);
+        return new DbfTable(src, source, DbfFile.readHeader(src, source));
+    }
+
+    /**
+     * Maps a .dbf file stored in a zip archive. If the file is compressed, it is
+     * decompressed into memory (see ZipBundle.map).
+     *
+     * @param zip archive that contains the file
+     * @param name name of the .dbf file in the archive
+     * @return a table to read the values of the records
+     * @throws Exception
+     */
+    public static DbfTable open(ZipBundle zip, String name) throws Exception {
+        var src = zip.src + "/" + name;
+        Echo.msg("Mapping .dbf from: " + src, 0);
+        var source = zip.map(name);
+        return new DbfTable(src, source, DbfFile.readHeader(src, source));
+    }
+
+    /** @return a table that shares the mapping of this one, but can be used by a different thread */
+    public DbfTable duplicate() {
+        return new DbfTable(src, source.duplicate(), header);
+    }
+
+    public int getNRows() { return nrows; }
+    public int getNCols() { return offsets.length; }
+    public List<FieldDescriptor> getFields() { return header.getFields(); }
+    public FieldDescriptor getField(int col) { return header.getFields().get(col); }
+
+    /** @return position of a field given its name, or -1 if there is no such field */
+    public int getColumnIndex(String name) {
+        var fields = header.getFields();
+        for (int j = 0; j < fields.size(); j++) {
+            if (fields.get(j).name.equals(name)) return j;
+        }
+        return -1;
+    }
+
+    /** Returns position in the file of the first byte of a value */
+    private long position(int row, int col) {
+        assert row >= 0 && row < nrows : "Row out of range: " + row;
+        return start + (long) row * rowSize + offsets[col];
+    }
+
+    /** Copies the bytes of a value to scratch and returns its length */
+    private int copy(int row, int col) throws Exception {
+        var len = getField(col).flength;
+        var b = source.at(position(row, col), len);
+        b.get(b.position(), scratch, 0, len);
+        return len;
+    }
+
+    /** @return true if a record is marked as deleted */
+    public boolean isDeleted(int row) throws Exception {
+        var b = source.at(position(row, 0) - 1, 1);
+        return b.get(b.position()) == '*';
+    }
+
+    /**
+     * Returns the value of a NUMBER or FLOAT field (see NumberParser).
+     *
+     * @param row position of the record (0-based)
+     * @param col position of the field (0-based)
+     * @return the value, or NaN if it is empty or not a number
+     */
+    public double getDouble(int row, int col) throws Exception {
+        return NumberParser.parseDouble(scratch, 0, copy(row, col));
+    }
+
+    /**
+     * Returns the value of a NUMBER field without decimals.
+     *
+     * @return the value, or NumberParser.NOT_A_LONG if it is empty or not an integer
+     */
+    public long getLong(int row, int col) throws Exception {
+        return NumberParser.parseLong(scratch, 0, copy(row, col));
+    }
+
+    /** Returns the value of a LOGICAL field. Empty and unknown (?) values are false. */
+    public boolean getBoolean(int row, int col) throws Exception {
+        var b = source.at(position(row, col), 1);
+        var c = b.get(b.position());
+        return c == 'T' || c == 't' || c == 'Y' || c == 'y';
+    }
+
+    /**
+     * Returns the value of a DATE field as an integer yyyymmdd, e.g. 20200131.
+     *
+     * @return the value, or 0 if it is empty or not a date
+     */
+    public int getDate(int row, int col) throws Exception {
+        var len = copy(row, col);
+        var v = NumberParser.parseLong(scratch, 0, len);
+        return (v < 0 || v > 99999999) ? 0 : (int) v;
+    }
+
+    /**
+     * Returns the text of a field without leading and trailing blanks, for any type of field.
+     */
+    public String getString(int row, int col) throws Exception {
+        var len = copy(row, col);
+        var end = 0;
+        while (end < len && scratch[end] != 0) end++;
+        return new String(scratch, 0, end, StandardCharsets.ISO_8859_1).strip();
+    }
+
+    /**
+     * Decodes the values of a field for a range of records into a column (see FieldColumn).
+     * Different ranges can be decoded by different threads, each one with its own duplicate.
+     *
+     * @param col position of the field (0-based)
+     * @param from position of the first record (0-based)
+     * @param to position after the last record
+     * @return a column with to - from values
+     */
+    public FieldColumn readColumn(int col, int from, int to) throws Exception {
+        var c = new FieldColumn(getField(col), to - from);
+        for (int i = from; i < to; i++) {
+            copy(i, col);
+            c.decode(scratch, 0);
+        }
+        c.trim();
+        return c;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DbfTable[%s, %d rows, %d fields, %d bytes per row]", src, nrows, offsets.length, rowSize);
+    }
+
+    public static void main(String[] args) throws Exception {
+        var src = (args.length > 0) ? args[0] : "examples/ex1_SimpleShapes/points.dbf";
+
+        var t = DbfTable.open(src);
+        System.out.println(t);
+        var columns = DbfFile.readColumnar(src, false).getColumns();
+        for (int j = 0; j < t.getNCols(); j++) {
+            var fd = t.getField(j);
+            System.out.println("  " + fd);
+            for (int i = 0; i < Math.min(t.getNRows(), 5); i++) {
+                System.out.printf("    [%d] %s\n", i, t.getString(i, j));
+            }
+            // Random access gives the same values as reading the whole file
+            var column = t.readColumn(j, 0, t.getNRows());
+            assert column.toString().equals(columns.get(j).toString()) : "Different values in field: " + fd.name;
+        }
+
+        System.out.println("*** ALL DONE ***");
+    }
+}
@@ -17,10 +17,12 @@
 package com.iidp.jgtv.files;
 
 import com.iidp.jgtv.others.Echo;
+import com.iidp.jgtv.others.ZipBundle;
 
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.InputStream;
 
 public class PrjFile {
     final String content;
@@ -29,8 +31,8 @@ public class PrjFile {
         return content;
     }
 
-    private PrjFile(String path) throws Exception {
-        var src = new DataInputStream(new FileInputStream(new File(path)));
+    private PrjFile(InputStream in) throws Exception {
+        var src = new DataInputStream(in);
         content = src.readLine();
         src.close();
     }
@@ -42,7 +44,26 @@ public class PrjFile {
     public static PrjFile read(String src, boolean verbose) throws Exception {
         var path = new File(src);
         Echo.msg("Reading .prj from: " + path.getAbsolutePath(), 0);
-        var prj = new PrjFile(path.getAbsolutePath());
+        var prj = new PrjFile(new FileInputStream(path));
+        if (verbose) {
+            System.out.println(prj.content);
+        }
+        Echo.msg("   Done reading .prj.", 0);
+        return prj;
+    }
+
+    /**
+     * Reads a .prj file stored in a zip archive.
+     *
+     * @param zip archive that contains the file
+     * @param name name of the .prj file in the archive
+     * @param verbose if true print content of the file
+     * @return the projection
+     * @throws Exception
+     */
+    public static PrjFile read(ZipBundle zip, String name, boolean verbose) throws Exception {
+        Echo.msg("Reading .prj from: " + zip.src + "/" + name, 0);
+        var prj = new PrjFile(zip.getInputStream(name));
         if (verbose) {
             System.out.println(prj.content);
         }
@@ -17,17 +17,32 @@
 package com.iidp.jgtv.files;
 
 import com.iidp.jgtv.files.dbf.FIELD_TYPE;
+import com.iidp.jgtv.files.dbf.FieldCategories;
+import com.iidp.jgtv.files.dbf.FieldColumn;
 import com.iidp.jgtv.files.dbf.FieldList;
 import com.iidp.jgtv.files.shp.*;
+import com.iidp.jgtv.others.AsyncFileReader;
 import com.iidp.jgtv.others.Echo;
-import com.iidp.jgtv.others.Helpers;
+import com.iidp.jgtv.others.FilePath;
 import com.iidp.jgtv.others.LittleEndian;
+import com.iidp.jgtv.others.LittleEndianInput;
+import com.iidp.jgtv.others.MappedSource;
+import com.iidp.jgtv.others.VtuWriter;
+import com.iidp.jgtv.others.ZipBundle;
 import com.iidp.vtk.high_level.EVTK;
 import com.iidp.vtk.low_level.VTK_CELL_TYPE;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Reads a shape file (.shp), which is composed of:
@@ -42,20 +57,72 @@ public class ShpFile {
     private SHP_TYPE type;
 
     /** Length of file in bytes */
-    private int length;
+    private long length;
     /** Bounding box */
     private double xmin, xmax, ymin, ymax, zmin, zmax;
     /** MinMax of M */
     private double mmin, mmax;
     /** List of records in file. These are shapes */
     List<AShape> records;
+    /** Geometry of all records stored as arrays of primitives */
+    ShpGeometry geometry;
+    /** Points of POINT files read with readColumnar, or null */
+    PointSet points;
+    /** Geometry stored outside of the heap by readOffHeap, or null */
+    OffHeapGeometry offHeap;
+
+    /** Mapped content of the file and index of its records. Only set by open */
+    private MappedSource source;
+    private ShxFile index;
 
     /** List of attributes for each shape in this file. These are read from a separate .dbf file */
     List<FieldList> attrs;
+    /**
+     * Sets attributes of shapes. Lists should have one value for each record in the file.
+     * If only some records were read (see ReadOptions), values of other records are discarded.
+     */
     public void setAttrs(List<FieldList> attrs) {
+        if (filtered) {
+            var rows = getSelectedRows();
+            var selected = new ArrayList<FieldList>();
+            for (FieldList fl: attrs) {
+                selected.add(fl.select(rows));
+            }
+            attrs = selected;
+        }
         this.attrs = attrs;
     }
 
+    /** Attributes of shapes stored as arrays of primitives, e.g. read by DbfFile.readColumnar */
+    List<FieldColumn> columns;
+    /**
+     * Sets attributes of shapes stored as columns (see setAttrs).
+     * If only some records were read, values of other records are discarded.
+     */
+    public void setColumns(List<FieldColumn> columns) {
+        if (filtered) {
+            var rows = getSelectedRows();
+            var selected = new ArrayList<FieldColumn>();
+            for (FieldColumn c: columns) {
+                selected.add(c.select(rows));
+            }
+            columns = selected;
+        }
+        this.columns = columns;
+    }
+
+    /** @return position (0-based) in the attribute lists of each record that was read */
+    private int[] getSelectedRows() {
+        return selectedRows.stream().map(i -> i - firstRecord).toArray();
+    }
+
+    /** True if only some of the records in the file were read */
+    private boolean filtered = false;
+    /** Positions (0-based) in the file of the records that were read */
+    private BitSet selectedRows = new BitSet();
+    /** Number of records before the first one that was read, if only the end of the file was read (see readTail) */
+    private int firstRecord = 0;
+
     /** Stores comments as a list of strings.
      *  Comments are included in the exported VTK file,
      *  which is their only use for now.
@@ -65,10 +132,28 @@ public class ShpFile {
         shpComments.add(c);
     }
 
+    /**
+     * Dictionaries of text attributes shared with other files, or null if each exported file has
+     * its own dictionary (see setDictionaries).
+     */
+    private Map<String, List<String>> dictionaries = null;
+    /**
+     * Encodes text attributes with dictionaries shared by several files, e.g. the files of a
+     * collection, so a value has the same code in all of them. Values that are not in the
+     * dictionary of their field are appended to it. The dictionaries are not written next to
+     * the exported file, so the caller should write them once (see FieldCategories.write).
+     *
+     * @param dictionaries distinct values of each field, in the order of their codes. They are updated.
+     */
+    public void setDictionaries(Map<String, List<String>> dictionaries) {
+        this.dictionaries = dictionaries;
+    }
+
     private ShpFile(String _src) {
         src = _src;
         records = new ArrayList<AShape>();
         attrs = new ArrayList<FieldList>();
+        columns = new ArrayList<FieldColumn>();
         shpComments = new ArrayList<String>();
     }
 
@@ -112,6 +197,66 @@ public class ShpFile {
         return xyz;
     }
 
+    /**
+     * Returns the geometry of all shapes in this file stored as arrays of primitives.
+     * If the file was read as a list of records or as a set of points, the container is created from them.
+     *
+     * @return columnar geometry of this file
+     */
+    public ShpGeometry getGeometry() {
+        if (geometry == null) {
+            geometry = (points != null) ? ShpGeometry.fromPoints(points) : ShpGeometry.fromShapes(type, records);
+        }
+        return geometry;
+    }
+
+    /**
+     * Returns the points of a POINT, POINTZ or POINTM file read with readColumnar.
+     *
+     * @return points stored as arrays of primitives, or null if the file was read in a different way
+     */
+    public PointSet getPoints() {
+        return points;
+    }
+
+    /**
+     * Returns the geometry of a file read with readOffHeap, or null.
+     */
+    public OffHeapGeometry getOffHeapGeometry() {
+        return offHeap;
+    }
+
+    /**
+     * Releases the temporary files used by a file read with readOffHeap.
+     * Other files do not hold any resource.
+     */
+    public void close() throws IOException {
+        if (offHeap != null) {
+            offHeap.close();
+            offHeap = null;
+        }
+    }
+
+    /**
+     * @return record number (1-based) of each shape read from the file
+     */
+    public int[] getRecordIds() {
+        if (records.isEmpty() && offHeap != null) {
+            return offHeap.getIds();
+        }
+        if (records.isEmpty() && points != null) {
+            return points.getIds().clone();
+        }
+        if (records.isEmpty() && geometry != null) {
+            return geometry.getIds().clone();
+        }
+        var ids = new int[records.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = records.get(i).getIDX();
+        }
+        return ids;
+    }
+
     /**
      * Returns a list with the number of points in each shape that composed this file.
      * @return
@@ -139,7 +284,7 @@ public class ShpFile {
         }
 
         //24-27 	int32 	big 	File length (in 16-bit words, including the header)
-        shp.length = b.readInt() * 2; // size in bytes
+        shp.length = Integer.toUnsignedLong(b.readInt()) * 2; // size in bytes
         //Echo.msg("Lenght (bytes): " + shp.length, 2);
 
         //28-31 	int32 	little 	Version
@@ -155,8 +300,8 @@ public class ShpFile {
         //36-67  double 	little 	Minimum bounding rectangle (MBR) of all shapes contained within the dataset;
         //       four doubles in the following order: min X, min Y, max X, max Y
         shp.xmin = LittleEndian.readDouble(b);
-        shp.xmax = LittleEndian.readDouble(b);
         shp.ymin = LittleEndian.readDouble(b);
+        shp.xmax = LittleEndian.readDouble(b);
         shp.ymax = LittleEndian.readDouble(b);
 
         //68-83 	double 	little 	Range of Z; two doubles in the following order: min Z, max Z
@@ -172,6 +317,46 @@ public class ShpFile {
         return shp;
     }
 
+    private static ShpFile read_header(ByteBuffer b, ShpFile shp) throws Exception {
+        // Same layout as above. The first 28 bytes are big endian, the rest little endian.
+        b.order(ByteOrder.BIG_ENDIAN);
+
+        //0-3 int32 big File code (always hex value 0x0000270a)
+        var fc = b.getInt();
+        assert (fc == 9994) : "Wrong file code: " + fc;
+
+        //4-23 	int32 	big 	Unused; five uint32
+        b.position(b.position() + 20);
+
+        //24-27 	int32 	big 	File length (in 16-bit words, including the header)
+        shp.length = Integer.toUnsignedLong(b.getInt()) * 2; // size in bytes
+
+        b.order(ByteOrder.LITTLE_ENDIAN);
+
+        //28-31 	int32 	little 	Version
+        var version = b.getInt();
+
+        //32-35 	int32 	little 	Shape type (see reference below)
+        var shape_type = b.getInt();
+        shp.type = SHP_TYPE.getShpType(shape_type);
+
+        //36-67  double 	little 	Minimum bounding rectangle (MBR) of all shapes contained within the dataset
+        shp.xmin = b.getDouble();
+        shp.ymin = b.getDouble();
+        shp.xmax = b.getDouble();
+        shp.ymax = b.getDouble();
+
+        //68-83 	double 	little 	Range of Z
+        shp.zmin = b.getDouble();
+        shp.zmax = b.getDouble();
+
+        //84-99 	double 	little 	Range of M
+        shp.mmin = b.getDouble();
+        shp.mmax = b.getDouble();
+
+        return shp;
+    }
+
     private int read_record(DataInputStream b) throws Exception {
         AShape record = null;
 
@@ -202,6 +387,29 @@ public class ShpFile {
         return record.size;
     }
 
+    private int read_record(ByteBuffer b, ReadOptions options) throws Exception {
+        var start = b.position();
+        var record = AShape.read(type, b, options.isReadZ(), options.isReadM());
+
+        // Records declare their own length, so always continue from there.
+        b.position(start + record.size);
+        records.add(record);
+        return record.size;
+    }
+
+    /**
+     * Returns the size of the record at the current position of a buffer.
+     *
+     * @param b buffer positioned at the beginning of a record, with at least 8 bytes
+     * @return size of the record in bytes, including its 8 bytes header
+     */
+    static int recordSize(ByteBuffer b) {
+        // 4-7 int32 big Record length (in 16-bit words)
+        var size = Integer.toUnsignedLong(b.order(ByteOrder.BIG_ENDIAN).getInt(b.position() + 4)) * 2 + 8;
+        assert size <= Integer.MAX_VALUE : "Record too large: " + size;
+        return (int) size;
+    }
+
     public static ShpFile read(String filename) throws Exception {
         return read(filename, false);
     }
@@ -212,7 +420,7 @@ public class ShpFile {
 
         var s = new FileInputStream(src);
         var bi = new BufferedInputStream(s);
-        var b = new DataInputStream(bi);
+        var b = new LittleEndianInput(bi);
 
         var shp = new ShpFile(filename);
 
@@ -234,12 +442,675 @@ public class ShpFile {
         return shp;
     }
 
+    public static ShpFile readMapped(String filename) throws Exception {
+        return readMapped(filename, false);
+    }
+
+    /**
+     * Reads a .shp file by mapping it into memory.
+     * Header, record headers and coordinates are decoded straight from the mapped buffer,
+     * which avoids the per value copies of the stream based reader.
+     * The result is the same as calling read.
+     *
+     * @param filename path to .shp file
+     * @param verbose if true print summary of the file
+     * @return a ShpFile with all records in the file
+     * @throws Exception
+     */
+    public static ShpFile readMapped(String filename, boolean verbose) throws Exception {
+        return readMapped(filename, new ReadOptions(), verbose);
+    }
+
+    /**
+     * Reads the records of a .shp file selected by some options by mapping it into memory.
+     * Records that are not selected are skipped without decoding them.
+     *
+     * @param filename path to .shp file
+     * @param options options that select which records are read
+     * @param verbose if true print summary of the file
+     * @return a ShpFile with the selected records
+     * @throws Exception
+     */
+    public static ShpFile readMapped(String filename, ReadOptions options, boolean verbose) throws Exception {
+        var src = new File(filename);
+        Echo.msg("Reading .shp (mapped) from: " + src.getAbsolutePath(), 0);
+        return readMapped(filename, MappedSource.map(filename), findIndex(filename, options), options, verbose);
+    }
+
+    /**
+     * Reads the records of a .shp file stored in a zip archive (see readMapped).
+     * If the file is not compressed, records are decoded straight from the mapped archive.
+     *
+     * @param zip archive that contains the file
+     * @param filename name of the .shp file in the archive
+     * @param options options that select which records are read
+     * @param verbose if true print summary of the file
+     * @return a ShpFile with the selected records
+     * @throws Exception
+     */
+    public static ShpFile readMapped(ZipBundle zip, String filename, ReadOptions options, boolean verbose) throws Exception {
+        Echo.msg("Reading .shp (mapped) from: " + zip.src + "/" + filename, 0);
+        return readMapped(filename, zip.map(filename), findIndex(zip, filename, options), options, verbose);
+    }
+
+    private static ShpFile readMapped(String filename, MappedSource source, ShxFile index, ReadOptions options, boolean verbose) throws Exception {
+        var shp = new ShpFile(filename);
+        shp.filtered = options.isFiltered();
+
+        // Read header information
+        read_header(source.at(0, 100), shp);
+
+        // Read records
+        var end = Math.min(shp.length, source.size);
+        shp.selectedRows = readSelected(source, 100, end, 0, index, options, r -> shp.read_record(r, options));
+
+        if (verbose) {
+            System.out.println(shp);
+        }
+        Echo.msg("  Done reading .shp", 0);
+        return shp;
+    }
+
+    public static ShpFile readColumnar(String filename) throws Exception {
+        return readColumnar(filename, false);
+    }
+
+    /**
+     * Reads a .shp file by mapping it into memory and stores the geometry of all
+     * records as arrays of primitives (see ShpGeometry). No AShape is created,
+     * so the list of records of the returned file is empty.
+     *
+     * @param filename path to .shp file
+     * @param verbose if true print summary of the file
+     * @return a ShpFile with the geometry of all records in the file
+     * @throws Exception
+     */
+    public static ShpFile readColumnar(String filename, boolean verbose) throws Exception {
+        return readColumnar(filename, new ReadOptions(), verbose);
+    }
+
+    /**
+     * Reads the geometry of the records of a .shp file selected by some options
+     * as arrays of primitives (see readColumnar).
+     *
+     * @param filename path to .shp file
+     * @param options options that select which records are read
+     * @param verbose if true print summary of the file
+     * @return a ShpFile with the geometry of the selected records
+     * @throws Exception
+     */
+    public static ShpFile readColumnar(String filename, ReadOptions options, boolean verbose) throws Exception {
+        var src = new File(filename);
+        Echo.msg("Reading .shp (columnar) from: " + src.getAbsolutePath(), 0);
+        return readColumnar(filename, MappedSource.map(filename), findIndex(filename, options), countRecords(filename), options, verbose);
+    }
+
+    /**
+     * Reads the geometry of the records of a .shp file selected by some options and stores it
+     * outside of the heap, in temporary files mapped into memory (see OffHeapGeometry).
+     * It is used to convert files whose geometry does not fit in the heap. The geometry is
+     * exported by toVTK without copying it into the heap. Temporary files are deleted by close.
+     *
+     * @param filename path to .shp file
+     * @param options options that select which records are read
+     * @param tmpDir directory for temporary files, or null to use the default temporary directory
+     * @param verbose if true print summary of the file
+     * @return a ShpFile with the geometry of the selected records
+     * @throws Exception
+     */
+    public static ShpFile readOffHeap(String filename, ReadOptions options, String tmpDir, boolean verbose) throws Exception {
+        var src = new File(filename);
+        Echo.msg("Reading .shp (off-heap) from: " + src.getAbsolutePath(), 0);
+
+        var source = MappedSource.map(filename);
+        var shp = new ShpFile(filename);
+        shp.filtered = options.isFiltered();
+        read_header(source.at(0, 100), shp);
+
+        var end = Math.min(shp.length, source.size);
+        var g = new OffHeapGeometry(shp.type, tmpDir, options.isReadZ(), options.isReadM());
+        try {
+            shp.selectedRows = readSelected(source, 100, end, 0, findIndex(filename, options), options, g::readRecord);
+        } catch (Exception e) {
+            g.close();
+            throw e;
+        }
+        shp.offHeap = g;
+
+        if (verbose) {
+            System.out.println(shp);
+        }
+        Echo.msg("  Done reading .shp", 0);
+        return shp;
+    }
+
+    /**
+     * Reads the geometry of the records of a .shp file stored in a zip archive (see readColumnar).
+     * If the file is not compressed, records are decoded straight from the mapped archive.
+     *
+     * @param zip archive that contains the file
+     * @param filename name of the .shp file in the archive
+     * @param options options that select which records are read
+     * @param verbose if true print summary of the file
+     * @return a ShpFile with the geometry of the selected records
+     * @throws Exception
+     */
+    public static ShpFile readColumnar(ZipBundle zip, String filename, ReadOptions options, boolean verbose) throws Exception {
+        Echo.msg("Reading .shp (columnar) from: " + zip.src + "/" + filename, 0);
+        return readColumnar(filename, zip.map(filename), findIndex(zip, filename, options), -1, options, verbose);
+    }
+
+    private static ShpFile readColumnar(String filename, MappedSource source, ShxFile index, long nrecords, ReadOptions options, boolean verbose) throws Exception {
+        var shp = new ShpFile(filename);
+        read_header(source.at(0, 100), shp);
+        readColumnar(shp, source, 100, Math.min(shp.length, source.size), index, nrecords, options);
+
+        if (verbose) {
+            System.out.println(shp);
+        }
+        Echo.msg("  Done reading .shp", 0);
+        return shp;
+    }
+
+    /**
+     * Reads the geometry of the records stored between two positions of a mapped .shp file,
+     * e.g. the records appended to the file since it was last read (see TailReader).
+     * Attributes set later should only include the rows from first on.
+     *
+     * @param filename path to .shp file
+     * @param source mapped .shp file
+     * @param start position of the first record to read
+     * @param end position of the end of the last record to read
+     * @param first number of records in the file before start
+     * @param options options that select which records are read
+     * @param verbose if true print summary of the file
+     * @return a ShpFile with the geometry of the selected records
+     * @throws Exception
+     */
+    static ShpFile readTail(String filename, MappedSource source, long start, long end, int first, ReadOptions options, boolean verbose) throws Exception {
+        var shp = new ShpFile(filename);
+        read_header(source.at(0, 100), shp);
+        shp.firstRecord = first;
+        readColumnar(shp, source, start, end, null, -1, options);
+
+        if (verbose) {
+            System.out.println(shp);
+        }
+        return shp;
+    }
+
+    /**
+     * Reads the geometry of the records between start and end into arrays of primitives.
+     * nrecords is the number of records between start and end given by the .shx file of
+     * the whole file, or -1 if it is not known.
+     */
+    private static void readColumnar(ShpFile shp, MappedSource source, long start, long end, ShxFile index, long nrecords, ReadOptions options) throws Exception {
+        shp.filtered = options.isFiltered();
+        // Capacity is estimated from the size of the records, as if they were a whole file with its
+        // 100 bytes header, so it is only a good guess if all records are read
+        var capacity = options.isFiltered() ? 0 : 100 + end - start;
+        if (PointSet.isPointType(shp.type)) {
+            // Each record is a single point, so they are stored without parts and offsets
+            var p = (nrecords < 0 || options.isFiltered()) ? PointSet.forFile(shp.type, capacity, options.isReadZ(), options.isReadM())
+                                                           : new PointSet(shp.type, (int) nrecords, options.isReadZ(), options.isReadM());
+            shp.selectedRows = readSelected(source, start, end, shp.firstRecord, index, options, p::readRecord);
+            p.trim();
+            shp.points = p;
+        } else {
+            var g = (nrecords < 0 || options.isFiltered()) ? ShpGeometry.forFile(shp.type, capacity, options.isReadZ(), options.isReadM())
+                                                           : sizedGeometry(shp, source, options);
+            shp.selectedRows = readSelected(source, start, end, shp.firstRecord, index, options, g::readRecord);
+            g.trim();
+            shp.geometry = g;
+        }
+    }
+
+    /**
+     * Creates an empty container for the geometry of all records of a file, with arrays of their
+     * final size. The number of parts and points of each record is read from its header, at the
+     * position given by the .shx file, so only the first bytes of each record are read.
+     *
+     * @param shp file that is read, which should have a .shx file
+     * @param source mapped .shp file
+     * @param options options that select which dimensions are read
+     * @return an empty container
+     * @throws Exception
+     */
+    private static ShpGeometry sizedGeometry(ShpFile shp, MappedSource source, ReadOptions options) throws Exception {
+        var index = ShxFile.read(FilePath.replaceExtension(shp.src, "shx"));
+        var view = new ShapeView();
+        long npoints = 0, nparts = 0;
+        for (int i = 0; i < index.getNRecords(); i++) {
+            if (index.getOffset(i) + index.getSize(i) > source.size) break;
+            view.at(source.at(index.getOffset(i), index.getSize(i)));
+            if (view.type() != SHP_TYPE.NULL) {
+                npoints += view.pointCount();
+                nparts += view.partCount();
+            }
+        }
+        if (npoints > Integer.MAX_VALUE - 8) {
+            throw new Exception("Too many points in: " + shp.src);
+        }
+        return new ShpGeometry(shp.type, (int) npoints, (int) nparts, index.getNRecords(), options.isReadZ(), options.isReadM());
+    }
+
+    public static ShpFile readAsync(String filename, boolean verbose) throws Exception {
+        return readAsync(filename, new ReadOptions(), AsyncFileReader.DEFAULT_CHUNK_SIZE, AsyncFileReader.DEFAULT_NBUFFERS, verbose);
+    }
+
+    /**
+     * Reads a .shp file as a sequence of large chunks using asynchronous I/O (see AsyncFileReader),
+     * so the next chunks are read from disk while the current one is decoded. It stores the
+     * geometry as arrays of primitives, like readColumnar, and reports the achieved read speed.
+     *
+     * Records that straddle the boundary between chunks are copied to a separate buffer
+     * and decoded from there. Records selected by options are found by scanning the file,
+     * since the .shx index is not used.
+     *
+     * @param filename path to .shp file
+     * @param options options that select which records are read
+     * @param chunkSize size of each chunk in bytes (at least 100 bytes)
+     * @param nbuffers number of chunks in memory
+     * @param verbose if true print summary of the file
+     * @return a ShpFile with the geometry of the selected records
+     * @throws Exception
+     */
+    public static ShpFile readAsync(String filename, ReadOptions options, int chunkSize, int nbuffers, boolean verbose) throws Exception {
+        assert chunkSize >= 100 : "Chunks should include the whole header";
+        var src = new File(filename);
+        Echo.msg("Reading .shp (async) from: " + src.getAbsolutePath(), 0);
+
+        var t0 = System.nanoTime();
+        var shp = new ShpFile(filename);
+        shp.filtered = options.isFiltered();
+        try (var in = new AsyncFileReader(filename, chunkSize, nbuffers)) {
+            read_header(in.peek(100), shp);
+
+            var end = Math.min(shp.length, in.size);
+            RecordReader reader;
+            var nrecords = countRecords(filename);
+            if (PointSet.isPointType(shp.type)) {
+                var p = (nrecords < 0 || options.isFiltered()) ? PointSet.forFile(shp.type, options.isFiltered() ? 0 : end, options.isReadZ(), options.isReadM())
+                                                               : new PointSet(shp.type, (int) nrecords, options.isReadZ(), options.isReadM());
+                shp.points = p;
+                reader = p::readRecord;
+            } else {
+                var g = ShpGeometry.forFile(shp.type, options.isFiltered() ? 0 : end, options.isReadZ(), options.isReadM());
+                shp.geometry = g;
+                reader = g::readRecord;
+            }
+
+            var consumed = 100L;
+            var row = 0;
+            while (consumed < end) {
+                var b = in.peek(8);
+                if (b == null) break;
+                var size = recordSize(b);
+                b = in.peek(size);
+                if (b == null) break;
+
+                if (options.accept(b, row)) {
+                    reader.read(b);
+                    shp.selectedRows.set(row);
+                } else {
+                    ReadOptions.skip(b);
+                }
+                consumed += size;
+                row += 1;
+            }
+            if (shp.points != null) shp.points.trim();
+            if (shp.geometry != null) shp.geometry.trim();
+        }
+        var t1 = System.nanoTime();
+
+        if (verbose) {
+            System.out.println(shp);
+        }
+        Echo.msg(String.format("  Done reading .shp (%.1f MB/s)", shp.length / ((t1 - t0) * 1e-9) / 1048576.0), 0);
+        return shp;
+    }
+
+    public static ShpFile readLazy(String filename) throws Exception {
+        return readLazy(filename, false);
+    }
+
+    /**
+     * Scans a mapped .shp file storing only the header of each record: offset, type,
+     * bounding box and number of parts and points (see LazyShape). Parts and coordinates
+     * are read from the mapped file the first time they are needed.
+     *
+     * @param filename path to .shp file
+     * @param verbose if true print summary of the file
+     * @return a ShpFile with all records in the file
+     * @throws Exception
+     */
+    public static ShpFile readLazy(String filename, boolean verbose) throws Exception {
+        var src = new File(filename);
+        Echo.msg("Scanning .shp from: " + src.getAbsolutePath(), 0);
+
+        var source = MappedSource.map(filename);
+        var shp = new ShpFile(filename);
+        read_header(source.at(0, 100), shp);
+
+        var end = Math.min(shp.length, source.size);
+        var pos = 100L;
+        while (pos < end) {
+            var size = recordSize(source.at(pos, 8));
+            // Shapes keep the buffer to read their points later, so it can not be shared
+            var b = source.at(pos, size).duplicate();
+            shp.records.add(LazyShape.scan(shp.type, b));
+            pos += size;
+        }
+
+        if (verbose) {
+            System.out.println(shp);
+        }
+        Echo.msg("  Done scanning .shp", 0);
+        return shp;
+    }
+
+    /**
+     * Reads a .shp file one record at a time and passes each record to a visitor.
+     * Records are not stored, and the same ShapeRecord is reused for all of them,
+     * so files larger than the available memory can be processed.
+     *
+     * @param filename path to .shp file
+     * @param visitor callback called for each record
+     * @return a ShpFile with the header information and no records
+     * @throws Exception
+     */
+    public static ShpFile stream(String filename, ShapeVisitor visitor) throws Exception {
+        var source = MappedSource.map(filename);
+        var shp = new ShpFile(filename);
+        read_header(source.at(0, 100), shp);
+
+        var record = new ShapeRecord();
+        var end = Math.min(shp.length, source.size);
+        var pos = 100L;
+        while (pos < end) {
+            var size = recordSize(source.at(pos, 8));
+            record.read(source.at(pos, size));
+            visitor.visit(record);
+            pos += size;
+        }
+        return shp;
+    }
+
+    /**
+     * Opens a .shp file to visit its records one at a time through a view that reads
+     * values straight from the mapped file (see ShapeView). Unlike stream, values are
+     * not copied, so records are visited without allocating memory for their points.
+     *
+     * @param filename path to .shp file
+     * @return a view positioned before the first record. Call next to move it.
+     * @throws Exception
+     */
+    public static ShapeView view(String filename) throws Exception {
+        return ShapeView.open(filename);
+    }
+
+    /**
+     * Reads a summary of a shape file without reading its records: the header of
+     * the .shp file, the size of the .shx file and the header of the .dbf file.
+     *
+     * @param filename path to .shp file
+     * @return summary of the file
+     * @throws Exception
+     */
+    public static ShpProbe probe(String filename) throws Exception {
+        return ShpProbe.read(filename);
+    }
+
+    /** Reads a record from a buffer positioned at its beginning */
+    private interface RecordReader {
+        void read(ByteBuffer b) throws Exception;
+    }
+
+    /**
+     * Reads the records selected by options. If there is an index, only the selected
+     * records are visited. Otherwise, all records are visited and those not selected
+     * are skipped using their length.
+     *
+     * @param source mapped .shp file
+     * @param start position of the first record, used if there is no index
+     * @param end position of the end of the last record
+     * @param first position (0-based) in the file of the record at start
+     * @param index index of the file, or null (see findIndex)
+     * @param options options that select which records are read
+     * @param reader reads a record from a buffer positioned at its beginning
+     * @return positions (0-based) in the file of the records that were read
+     * @throws Exception
+     */
+    private static BitSet readSelected(MappedSource source, long start, long end, int first, ShxFile index, ReadOptions options, RecordReader reader) throws Exception {
+        var read = new BitSet();
+        if (index != null) {
+            var rows = options.getRecords();
+            for (int i = rows.nextSetBit(0); (i >= 0) && (i < index.getNRecords()); i = rows.nextSetBit(i + 1)) {
+                var b = source.at(index.getOffset(i), index.getSize(i));
+                if (options.accept(b, i)) {
+                    reader.read(b);
+                    read.set(i);
+                }
+            }
+        } else {
+            var pos = start;
+            var row = first;
+            while (pos < end) {
+                var size = recordSize(source.at(pos, 8));
+                var b = source.at(pos, size);
+                if (options.accept(b, row)) {
+                    reader.read(b);
+                    read.set(row);
+                }
+                pos += size;
+                row += 1;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Returns the index of a .shp file if only some records are selected by options
+     * and the .shx file exists, so readers can jump to them. Otherwise returns null
+     * and records are scanned sequentially.
+     */
+    private static ShxFile findIndex(String filename, ReadOptions options) throws Exception {
+        if (options.getRecords() == null) return null;
+
+        var shxname = FilePath.replaceExtension(filename, "shx");
+        if (!FilePath.fileExist(shxname)) return null;
+        return ShxFile.read(shxname);
+    }
+
+    /**
+     * Returns the number of records of a .shp file given by the size of its .shx file,
+     * which is not read, or -1 if there is no .shx file.
+     */
+    private static long countRecords(String filename) throws Exception {
+        var shx = new File(FilePath.replaceExtension(filename, "shx"));
+        if (!FilePath.fileExist(shx)) return -1;
+        return Math.max(0, (shx.length() - 100) / 8);
+    }
+
+    /** Returns the index of a .shp file stored in a zip archive (see findIndex) */
+    private static ShxFile findIndex(ZipBundle zip, String filename, ReadOptions options) throws Exception {
+        if (options.getRecords() == null) return null;
+
+        var shxname = zip.find(FilePath.replaceExtension(filename, "shx"));
+        if (shxname == null) return null;
+        return ShxFile.read(zip.src + "/" + shxname, zip.map(shxname), false);
+    }
+
+    /**
+     * Opens a .shp file for random access to its records.
+     * Only the header is read. The position of the records is read from the
+     * associated .shx file or, if it does not exist, from the record headers.
+     *
+     * @param filename path to .shp file
+     * @return a ShpFile without records that can be used to call readRecord
+     * @throws Exception
+     */
+    public static ShpFile open(String filename) throws Exception {
+        var source = MappedSource.map(filename);
+        var shp = new ShpFile(filename);
+        read_header(source.at(0, 100), shp);
+
+        var shxname = FilePath.replaceExtension(filename, "shx");
+        if (FilePath.fileExist(shxname)) {
+            shp.index = ShxFile.read(shxname);
+        } else {
+            Echo.msg("Missing .shx, indexing records in: " + filename, 1);
+            shp.index = ShxFile.fromShp(source, Math.min(shp.length, source.size), filename);
+        }
+        shp.source = source;
+        return shp;
+    }
+
+    /** @return number of records in a file opened with open */
+    public int getNRecords() {
+        assert index != null : "File should be opened with ShpFile.open";
+        return index.getNRecords();
+    }
+
+    /**
+     * Reads a single record of a file opened with open.
+     * Records of the same file should not be read concurrently, but each thread can open the file.
+     *
+     * @param i position of the record in the file (0-based)
+     * @return the shape stored in the record
+     * @throws Exception
+     */
+    public AShape readRecord(int i) throws Exception {
+        assert index != null : "File should be opened with ShpFile.open";
+        return AShape.read(type, source.at(index.getOffset(i), index.getSize(i)));
+    }
+
+    /**
+     * Reads a list of records of a file opened with open.
+     *
+     * @param ids positions of the records in the file (0-based)
+     * @return list of shapes in the same order as ids
+     * @throws Exception
+     */
+    public List<AShape> readRecords(int[] ids) throws Exception {
+        var shapes = new ArrayList<AShape>(ids.length);
+        for (int i: ids) {
+            shapes.add(readRecord(i));
+        }
+        return shapes;
+    }
+
+    /**
+     * Decodes a range of records into an array. Ranges larger than a threshold are
+     * split in two halves that are decoded concurrently.
+     */
+    private static class ReadTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final MappedSource source;
+        final ShxFile index;
+        final SHP_TYPE type;
+        final AShape[] shapes;
+        final int first, last, threshold;
+
+        ReadTask(MappedSource _source, ShxFile _index, SHP_TYPE _type, AShape[] _shapes, int _first, int _last, int _threshold) {
+            source = _source;
+            index = _index;
+            type = _type;
+            shapes = _shapes;
+            first = _first;
+            last = _last;
+            threshold = _threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (last - first <= threshold) {
+                // Each task needs its own position in the buffers
+                var s = source.duplicate();
+                try {
+                    for (int i = first; i < last; i++) {
+                        shapes[i] = AShape.read(type, s.at(index.getOffset(i), index.getSize(i)));
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            } else {
+                var middle = (first + last) >>> 1;
+                invokeAll(new ReadTask(source, index, type, shapes, first, middle, threshold),
+                          new ReadTask(source, index, type, shapes, middle, last, threshold));
+            }
+        }
+    }
+
+    public static ShpFile readParallel(String filename, int parallelism) throws Exception {
+        return readParallel(filename, parallelism, false);
+    }
+
+    /**
+     * Reads a .shp file decoding its records concurrently.
+     * The records are split in contiguous ranges according to the offsets stored in the
+     * .shx file, and each range is decoded by a task of a ForkJoinPool. Records are stored
+     * in the same order as in the file.
+     * If the .shx file does not exist, the file is read sequentially (see readMapped).
+     *
+     * @param filename path to .shp file
+     * @param parallelism number of threads used to decode records. If it is less than 1,
+     *                    the number of available processors is used.
+     * @param verbose if true print summary of the file
+     * @return a ShpFile with all records in the file
+     * @throws Exception
+     */
+    public static ShpFile readParallel(String filename, int parallelism, boolean verbose) throws Exception {
+        var shxname = FilePath.replaceExtension(filename, "shx");
+        if (!FilePath.fileExist(shxname)) {
+            Echo.msg("Missing .shx, reading records sequentially: " + filename, 1);
+            return readMapped(filename, verbose);
+        }
+        if (parallelism < 1) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+
+        var src = new File(filename);
+        Echo.msg("Reading .shp (" + parallelism + " threads) from: " + src.getAbsolutePath(), 0);
+
+        var shp = open(filename);
+        var n = shp.index.getNRecords();
+        var shapes = new AShape[n];
+        // Several tasks per thread, so threads that finish early can steal work
+        var threshold = Math.max(64, n / (8 * parallelism));
+
+        var pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new ReadTask(shp.source, shp.index, shp.type, shapes, 0, n, threshold));
+        } catch (RuntimeException e) {
+            throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+        } finally {
+            pool.shutdown();
+        }
+
+        shp.records.addAll(Arrays.asList(shapes));
+        shp.source = null;
+        shp.index = null;
+
+        if (verbose) {
+            System.out.println(shp);
+        }
+        Echo.msg("  Done reading .shp", 0);
+        return shp;
+    }
+
     public void list_records(boolean verbose) {
         list_records(verbose, System.out);
     }
 
     public void list_records(boolean verbose, PrintStream out) {
         out.println("Records in file: ");
+        if (records.isEmpty() && points != null) {
+            points.display(out);
+        } else if (records.isEmpty() && geometry != null) {
+            geometry.display(out);
+        }
         for (AShape r : records) {
             out.println(r);
             if (verbose) r.display(out);
@@ -284,14 +1155,16 @@ public class ShpFile {
      */
     private String toVTK(String path, boolean setZByAttribute, int attrPosition) throws Exception {
         System.out.println("Exporting to VTK...");
+        if (points != null) {
+            return pointsToVTK(path);
+        }
+        if (offHeap != null) {
+            return offHeapToVTK(path);
+        }
 
         // Get common information for all shapes
-        var xyz = getXYZ();
-        var x = xyz.get(0);
-        var y = xyz.get(1);
-        var z = xyz.get(2);
-        var pointsPerRecord = getPointsPerShape();
-        var ncells = records.size();
+        var g = getGeometry();
+        var ncells = g.getNShapes();
 
         // Make containers to store information
         var pointData  = EVTK.makePointData();
@@ -302,18 +1175,26 @@ public class ShpFile {
             comments.add(c);
         }
 
-        // Fill cellData with attributes read from a .dbf file,
+        // Values of attributes of each shape. Point files have no cells, so they are exported as point data.
+        var values = new LinkedHashMap<String, double[]>();
+
+        // Text attributes are exported as codes of categories, and their values in a separate file
+        var categories = encodeText();
+        for (FieldCategories c: categories) {
+            values.put(c.fd.name, c.toArrayDouble());
+        }
+
+        // Fill values with attributes read from a .dbf file,
         // which should have been previously set.
         for (FieldList fl: attrs) {
             if (fl.fd.type == FIELD_TYPE.FLOAT) {
                 var d = fl.toArrayDouble();
-                cellData.addData(fl.fd.name, d);
+                values.put(fl.fd.name, d);
             } else if (fl.fd.type == FIELD_TYPE.NUMBER) { // it could be int or double
                 var d = fl.toArrayDouble();
-                cellData.addData(fl.fd.name, d);
+                values.put(fl.fd.name, d);
             } else  if (fl.fd.type == FIELD_TYPE.TEXT) {
-                var d = fl.toString();
-                comments.add(d);
+                // already exported as categories
             }  else  if (fl.fd.type == FIELD_TYPE.DATE) {
                 var d = fl.toString();
                 comments.add(d);
@@ -321,12 +1202,28 @@ public class ShpFile {
                 assert false : "Unknown field type: " + type;
             }
         }
+        // Same for attributes stored as columns. Numbers are not copied if they are already doubles.
+        for (FieldColumn c: columns) {
+            if (c.isNumeric()) {
+                values.put(c.fd.name, c.toArrayDouble());
+            } else if (c.getStorage() != FieldColumn.Storage.TEXT) {
+                comments.add(c.toString());
+            }
+        }
 
         // Prepare data to export
-        var xx = Helpers.toArrayDouble(x);
-        var yy = Helpers.toArrayDouble(y);
-        var zz = Helpers.toArrayDouble(z);
-        var pointsPerShape = Helpers.toArrayInteger(pointsPerRecord);
+        var xx = g.getX();
+        var yy = g.getY();
+        var zz = g.getZ();
+        var pointsPerShape = g.getPointsPerShape();
+
+        for (Map.Entry<String, double[]> e: values.entrySet()) {
+            if (type == SHP_TYPE.POINT || type == SHP_TYPE.MULTIPOINT) {
+                pointData.addData(e.getKey(), toPoints(e.getValue(), pointsPerShape));
+            } else {
+                cellData.addData(e.getKey(), e.getValue());
+            }
+        }
 
         // This could require more thought
        /* if (setZByAttribute && attrs.size() > 0) {
@@ -362,7 +1259,221 @@ public class ShpFile {
         } else {
             assert false : "Not implemented for type: " + type;
         }
+        writeCategories(full_path, categories);
+
+        System.out.println("DONE. File exported to: " + full_path);
+        return full_path;
+    }
+
+    /**
+     * Repeats the value of each shape for each one of its points, e.g. for all points of a
+     * MULTIPOINT record. Shapes without points (null records) have no value.
+     *
+     * @param values value of each shape
+     * @param pointsPerShape number of points of each shape
+     * @return value of each point
+     */
+    private static double[] toPoints(double[] values, int[] pointsPerShape) {
+        var n = 0;
+        for (int c: pointsPerShape) n += c;
+        if (n == values.length && n == pointsPerShape.length) {
+            return values; // one point for each shape
+        }
+        var d = new double[n];
+        var pos = 0;
+        for (int i = 0; i < pointsPerShape.length; i++) {
+            Arrays.fill(d, pos, pos + pointsPerShape[i], values[i]);
+            pos += pointsPerShape[i];
+        }
+        return d;
+    }
+
+    /**
+     * Encodes the values of text attributes as codes of categories (see FieldCategories),
+     * with the shared dictionaries if they were set.
+     */
+    private List<FieldCategories> encodeText() {
+        var categories = new ArrayList<FieldCategories>();
+        for (FieldList fl: attrs) {
+            if (fl.fd.type == FIELD_TYPE.TEXT) categories.add(FieldCategories.encode(fl));
+        }
+        for (FieldColumn c: columns) {
+            if (c.getStorage() == FieldColumn.Storage.TEXT) categories.add(c.encode());
+        }
+        if (dictionaries != null) {
+            for (int k = 0; k < categories.size(); k++) {
+                var c = categories.get(k);
+                categories.set(k, c.withDictionary(dictionaries.computeIfAbsent(c.fd.name, name -> new ArrayList<>())));
+            }
+        }
+        return categories;
+    }
+
+    /**
+     * Returns path to the file with the values of the categories of text attributes
+     * exported to a VTK file, e.g. dir/file_categories.csv for dir/file.vtu.
+     */
+    public static String categoriesPath(String vtkPath) {
+        var name = FilePath.getFilenameWithoutExtension(vtkPath) + "_categories.csv";
+        return FilePath.join(FilePath.getBasename(vtkPath), name);
+    }
+
+    /**
+     * Writes the dictionary of text attributes next to an exported VTK file, if there are any.
+     * Shared dictionaries are written by the caller (see setDictionaries).
+     */
+    private void writeCategories(String vtkPath, List<FieldCategories> categories) throws Exception {
+        if (categories.isEmpty() || dictionaries != null) return;
+        var path = categoriesPath(vtkPath);
+        FieldCategories.write(path, categories);
+        Echo.msg("  Categories of text attributes written to: " + path, 0);
+    }
+
+    /**
+     * Exports points read with readColumnar straight from their arrays.
+     * Each record is a single point, so numeric attributes are exported as point data.
+     * Null records are not exported, neither their attributes.
+     */
+    private String pointsToVTK(String path) throws Exception {
+        var pointData = EVTK.makePointData();
+        var comments = EVTK.makeComments();
+        comments.addAll(shpComments);
+
+        // Points of null records are NaN placeholders (see PointSet.isNull)
+        var rows = nonNullPoints();
+
+        var categories = encodeText();
+        for (FieldCategories c: categories) {
+            pointData.addData(c.fd.name, select(c.toArrayDouble(), rows));
+        }
+        for (FieldList fl: attrs) {
+            if (fl.fd.type == FIELD_TYPE.FLOAT || fl.fd.type == FIELD_TYPE.NUMBER) {
+                pointData.addData(fl.fd.name, select(fl.toArrayDouble(), rows));
+            } else if (fl.fd.type != FIELD_TYPE.TEXT) {
+                comments.add(fl.toString());
+            }
+        }
+        for (FieldColumn c: columns) {
+            if (c.isNumeric()) {
+                pointData.addData(c.fd.name, select(c.toArrayDouble(), rows));
+            } else if (c.getStorage() != FieldColumn.Storage.TEXT) {
+                comments.add(c.toString());
+            }
+        }
+
+        var full_path = EVTK.pointsToVTK(path, select(points.getX(), rows), select(points.getY(), rows), select(points.getZ(), rows), pointData, comments);
+        writeCategories(full_path, categories);
+        System.out.println("DONE. File exported to: " + full_path);
+        return full_path;
+    }
+
+    /** @return positions of the points that are not null records, or null if all of them are valid */
+    private int[] nonNullPoints() {
+        var n = points.getNPoints();
+        var rows = new int[n];
+        var count = 0;
+        for (int i = 0; i < n; i++) {
+            if (!points.isNull(i)) rows[count++] = i;
+        }
+        return (count == n) ? null : Arrays.copyOf(rows, count);
+    }
+
+    /** @return values at some positions of an array, or the array itself if rows is null */
+    private static double[] select(double[] values, int[] rows) {
+        if (rows == null) return values;
+        var d = new double[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            d[i] = values[rows[i]];
+        }
+        return d;
+    }
+
+    /**
+     * Returns the shape of each point of geometry read with readOffHeap, so the value of
+     * an attribute of each shape is repeated for each one of its points (see toPoints).
+     */
+    private static VtuWriter.Indices pointShapes(OffHeapGeometry g) {
+        if (g.type == SHP_TYPE.POINT && g.getNShapes() == g.getNPoints()) {
+            return i -> i; // one point for each shape
+        }
+        return i -> shapeOf(g, i);
+    }
+
+    /** @return position of the shape s that contains point i, i.e. getShapeOffset(s) <= i < getShapeOffset(s + 1) */
+    private static long shapeOf(OffHeapGeometry g, long i) {
+        long lo = 0, hi = g.getNShapes() - 1;
+        while (lo < hi) {
+            var mid = (lo + hi) >>> 1;
+            if (g.getShapeOffset(mid + 1) <= i) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Exports geometry read with readOffHeap. Coordinates are streamed from the off-heap
+     * columns to the file (see VtuWriter), so they are never copied into the heap.
+     * Cells are the same as the ones exported by EVTK for geometry stored in arrays.
+     */
+    private String offHeapToVTK(String path) throws Exception {
+        var g = offHeap;
+        var w = new VtuWriter(path).points(g.getNPoints(), g::getX, g::getY, g::getZ);
+        for (String c: shpComments) {
+            w.addComment(c);
+        }
+
+        // Cells of points are vertices, not shapes, so attributes of points are exported as point data
+        var isPoints = type == SHP_TYPE.POINT || type == SHP_TYPE.MULTIPOINT;
+        var shapes = isPoints ? pointShapes(g) : null;
+        var categories = encodeText();
+        for (FieldCategories c: categories) {
+            if (isPoints) {
+                w.addIntPointData(c.fd.name, i -> c.getCode((int) shapes.get(i)));
+            } else {
+                w.addIntCellData(c.fd.name, i -> c.getCode((int) i));
+            }
+        }
+        for (FieldList fl: attrs) {
+            if (fl.fd.type == FIELD_TYPE.FLOAT || fl.fd.type == FIELD_TYPE.NUMBER) {
+                var d = fl.toArrayDouble();
+                if (isPoints) {
+                    w.addPointData(fl.fd.name, i -> d[(int) shapes.get(i)]);
+                } else {
+                    w.addCellData(fl.fd.name, i -> d[(int) i]);
+                }
+            } else if (fl.fd.type != FIELD_TYPE.TEXT) {
+                w.addComment(fl.toString());
+            }
+        }
+        for (FieldColumn c: columns) {
+            if (!c.isNumeric()) {
+                if (c.getStorage() != FieldColumn.Storage.TEXT) w.addComment(c.toString());
+            } else {
+                var d = c.toArrayDouble();
+                if (isPoints) {
+                    w.addPointData(c.fd.name, i -> d[(int) shapes.get(i)]);
+                } else {
+                    w.addCellData(c.fd.name, i -> d[(int) i]);
+                }
+            }
+        }
+
+        if (isPoints) {
+            // One vertex for each point
+            w.cells(g.getNPoints(), g.getNPoints(), i -> i, i -> i + 1, VtuWriter.VTK_VERTEX);
+        } else if (type == SHP_TYPE.POLYLINE || type == SHP_TYPE.POLYLINEZ || type == SHP_TYPE.POLYGON || type == SHP_TYPE.POLYGONZ) {
+            // One cell for each shape, which ends at the first point of the next shape
+            var cellType = (type == SHP_TYPE.POLYGON || type == SHP_TYPE.POLYGONZ) ? VtuWriter.VTK_POLYGON : VtuWriter.VTK_POLY_LINE;
+            w.cells(g.getNShapes(), g.getNPoints(), i -> i, i -> g.getShapeOffset(i + 1), cellType);
+        } else {
+            assert false : "Not implemented for type: " + type;
+        }
 
+        var full_path = w.write();
+        writeCategories(full_path, categories);
         System.out.println("DONE. File exported to: " + full_path);
         return full_path;
     }
@@ -0,0 +1,127 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files;
+
+import com.iidp.jgtv.files.shp.SHP_TYPE;
+import com.iidp.jgtv.others.FilePath;
+import com.iidp.jgtv.others.LittleEndianInput;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+
+/**
+ * Summary of a shape file obtained by reading only headers: the 100 bytes header
+ * of the .shp file, the size of the .shx file and the header of the .dbf file.
+ * It is created by ShpFile.probe.
+ */
+public class ShpProbe {
+    /** Separator used to write summaries as rows of a table */
+    public static String SEP = "\t";
+
+    /** Path to .shp file */
+    public final String src;
+    /** Type of shapes in the file */
+    SHP_TYPE type;
+    /** Size of the .shp file in bytes */
+    long size;
+    /** Bounding box as stored in the header of the .shp file */
+    double xmin, ymin, xmax, ymax, zmin, zmax;
+    /** Number of records according to the .shx file, or -1 if it does not exist */
+    long nrecords = -1;
+    /** Number of records and fields according to the .dbf file, or -1 if it does not exist */
+    long dbfRecords = -1;
+    int dbfFields = -1;
+
+    ShpProbe(String _src) {
+        src = _src;
+    }
+
+    public SHP_TYPE getType() { return type; }
+    public long getSize() { return size; }
+    public long getNRecords() { return nrecords; }
+    public long getDbfRecords() { return dbfRecords; }
+    public int getDbfFields() { return dbfFields; }
+    public double getXMin() { return xmin; }
+    public double getYMin() { return ymin; }
+    public double getXMax() { return xmax; }
+    public double getYMax() { return ymax; }
+
+    /**
+     * Reads the headers of a shape file and its associated .shx and .dbf files.
+     *
+     * @param path path to .shp file
+     * @return a summary of the file
+     * @throws Exception
+     */
+    static ShpProbe read(String path) throws Exception {
+        var p = new ShpProbe(path);
+        var src = new File(path);
+        p.size = src.length();
+
+        try (var b = new LittleEndianInput(new BufferedInputStream(new FileInputStream(src), 128))) {
+            //0-3 int32 big File code
+            var fc = b.readInt();
+            if (fc != 9994) throw new Exception("Wrong file code: " + fc + " in " + path);
+            //4-27 int32 big Unused (five uint32) and file length, which is taken from the file
+            b.skipBytes(24);
+            //28-31 int32 little Version
+            b.readIntLE();
+            //32-35 int32 little Shape type
+            p.type = SHP_TYPE.getShpType(b.readIntLE());
+            //36-67 double little min X, min Y, max X, max Y
+            p.xmin = b.readDoubleLE();
+            p.ymin = b.readDoubleLE();
+            p.xmax = b.readDoubleLE();
+            p.ymax = b.readDoubleLE();
+            //68-83 double little min Z, max Z
+            p.zmin = b.readDoubleLE();
+            p.zmax = b.readDoubleLE();
+        }
+
+        // Each record uses 8 bytes in the index after a 100 bytes header
+        var shx = new File(FilePath.replaceExtension(path, "shx"));
+        if (shx.isFile()) {
+            p.nrecords = (shx.length() - 100) / 8;
+        }
+
+        var dbfname = FilePath.replaceExtension(path, "dbf");
+        if (FilePath.fileExist(dbfname)) {
+            var dbf = DbfFile.readHeader(dbfname);
+            p.dbfRecords = dbf.getNRecords();
+            p.dbfFields = dbf.getNFields();
+        }
+        return p;
+    }
+
+    /** @return names of the columns written by toRow */
+    public static String header() {
+        return String.join(SEP, "path", "type", "size", "records", "xmin", "ymin", "xmax", "ymax", "zmin", "zmax", "dbf_records", "dbf_fields");
+    }
+
+    /** @return summary written as a single row of a table */
+    public String toRow() {
+        return String.join(SEP, src, String.valueOf(type), String.valueOf(size), String.valueOf(nrecords),
+                String.valueOf(xmin), String.valueOf(ymin), String.valueOf(xmax), String.valueOf(ymax),
+                String.valueOf(zmin), String.valueOf(zmax), String.valueOf(dbfRecords), String.valueOf(dbfFields));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %s, %d bytes, %d records, [%g:%g, %g:%g]", src, type, size, nrecords, xmin, xmax, ymin, ymax);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files;
+
+import com.iidp.jgtv.others.Echo;
+import com.iidp.jgtv.others.MappedSource;
+
+import java.io.File;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Reads an index file (.shx), which stores the position of each record of the
+ * associated .shp file. It is composed of:
+ *  - A header, which is identical to the header of the .shp file (100 bytes), and
+ *  - A sequence of records with two big endian int32 values each:
+ *      + Offset of the record in the .shp file (in 16-bit words)
+ *      + Length of the content of the record (in 16-bit words), which does not include the record header.
+ */
+public class ShxFile {
+    /** Path to .shx file */
+    public final String src;
+    /** Offset of each record in the .shp file in bytes */
+    private long[] offsets;
+    /** Length of the content of each record in bytes */
+    private int[] lengths;
+
+    private ShxFile(String _src, int nrecords) {
+        src = _src;
+        offsets = new long[nrecords];
+        lengths = new int[nrecords];
+    }
+
+    /** @return number of records in the index */
+    public int getNRecords() {
+        return offsets.length;
+    }
+
+    /**
+     * @param i position of the record in the file (0-based)
+     * @return offset in bytes of the record in the .shp file
+     */
+    public long getOffset(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * @param i position of the record in the file (0-based)
+     * @return size in bytes of the record including its header (8 bytes)
+     */
+    public int getSize(int i) {
+        return lengths[i] + 8;
+    }
+
+    public static ShxFile read(String path) throws Exception {
+        return read(path, false);
+    }
+
+    public static ShxFile read(String path, boolean verbose) throws Exception {
+        var src = new File(path);
+        return read(src.getAbsolutePath(), MappedSource.map(path), verbose);
+    }
+
+    /**
+     * Reads a .shx file that is already mapped into memory, e.g. a file stored in a zip archive.
+     *
+     * @param path name of the .shx file
+     * @param source content of the .shx file
+     * @param verbose if true print number of records
+     * @return index of the records
+     * @throws Exception
+     */
+    public static ShxFile read(String path, MappedSource source, boolean verbose) throws Exception {
+        Echo.msg("Reading .shx from: " + path, 0);
+
+        // 24-27 	int32 	big 	File length (in 16-bit words, including the header)
+        var length = Math.min(Integer.toUnsignedLong(source.at(0, 100).order(ByteOrder.BIG_ENDIAN).getInt(24)) * 2, source.size);
+        var nrecords = (length - 100) / 8;
+        if (nrecords > Integer.MAX_VALUE) {
+            throw new Exception("Too many records in: " + path);
+        }
+
+        var shx = new ShxFile(path, (int) nrecords);
+        // Values are unsigned, so offsets can reach 8 GB
+        for (int i = 0; i < nrecords; i++) {
+            var b = source.at(100 + 8L * i, 8).order(ByteOrder.BIG_ENDIAN);
+            shx.offsets[i] = Integer.toUnsignedLong(b.getInt(b.position())) * 2;
+            shx.lengths[i] = b.getInt(b.position() + 4) * 2;
+        }
+
+        if (verbose) {
+            System.out.println("Number of records: " + nrecords);
+        }
+        Echo.msg("   Done reading .shx.", 0);
+        return shx;
+    }
+
+    /**
+     * Creates an index by walking the record headers of a .shp file.
+     * Only the 8 bytes of each record header are read, so it is much faster than
+     * reading the whole file. It is used when a .shp file does not have its .shx file.
+     *
+     * @param source mapped .shp file
+     * @param length position of the end of the last record
+     * @param path path to the .shp file
+     * @return index of the records in the file
+     * @throws Exception if the length of a record is not valid, e.g. the file is corrupt
+     */
+    static ShxFile fromShp(MappedSource source, long length, String path) throws Exception {
+        var offsets = new long[1024];
+        var lengths = new int[1024];
+        var n = 0;
+        var pos = 100L;
+        while (pos < length) {
+            if (n == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * n);
+                lengths = Arrays.copyOf(lengths, 2 * n);
+            }
+            var b = source.at(pos, 8).order(ByteOrder.BIG_ENDIAN);
+            // Records have at least their shape type (4 bytes) and end before the end of the file
+            var len = b.getInt(b.position() + 4) * 2L;
+            if (len < 4 || pos + 8 + len > length) {
+                throw new Exception(String.format("Invalid length of record %d at position %d (%d bytes) in: %s", n + 1, pos, len, path));
+            }
+            offsets[n] = pos;
+            lengths[n] = (int) len;
+            pos += len + 8;
+            n += 1;
+        }
+
+        var shx = new ShxFile(path, 0);
+        shx.offsets = Arrays.copyOf(offsets, n);
+        shx.lengths = Arrays.copyOf(lengths, n);
+        return shx;
+    }
+
+    public static void main(String[] args) throws Exception {
+        var src = "examples/ex1_SimpleShapes/polygons.shx";
+        var shx = read(src, true);
+        for (int i = 0; i < shx.getNRecords(); i++) {
+            System.out.printf("Record %d: offset %d, size %d\n", i, shx.getOffset(i), shx.getSize(i));
+        }
+        System.out.println("*** ALL DONE ***");
+    }
+}
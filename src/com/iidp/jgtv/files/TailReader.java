@@ -0,0 +1,329 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files;
+
+import com.iidp.jgtv.files.dbf.FieldFilter;
+import com.iidp.jgtv.files.shp.ReadOptions;
+import com.iidp.jgtv.others.Echo;
+import com.iidp.jgtv.others.FilePath;
+import com.iidp.jgtv.others.MappedSource;
+
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Reads only the records appended to a shape file since it was last read. It is used
+ * for files that grow while they are used, e.g. files written by a data logger that
+ * are exported again every few minutes.
+ *
+ * The state of the reader is stored in a small text file between runs:
+ *  - position of the end of the last record read and number of records read,
+ *  - checksums of the parts of the .shp and .dbf headers that do not change when
+ *    records are appended (file code, version, shape type, fields),
+ *  - checksums of the last record read from the .shp and .dbf files,
+ *  - names of the files written from the records read so far (see addOutput),
+ *  - distinct values of text attributes, so they keep their codes in all the files written
+ *    from the records (see getDictionaries).
+ * If a file is shorter than the records already read or any checksum changed, the file
+ * was truncated or rewritten, so it is read again from the beginning (see isReset).
+ *
+ * Records are only read once they are complete in both the .shp and the .dbf file, so
+ * records that are still being written are read by the next call.
+ *
+ * Usage:
+ *    var tail = TailReader.open("logger.shp", "logger.dbf", "out/logger.tail");
+ *    var shp = tail.readNew(new ReadOptions(), null, true, null, false);
+ *    if (shp != null) {
+ *        tail.addOutput(shp.toVTK("out/logger_" + tail.getOutputs().size()));
+ *    }
+ *    tail.save();
+ */
+public class TailReader {
+    /** Path to .shp file */
+    public final String src;
+    /** Path to .dbf file, or null if attributes are not read */
+    public final String dbfname;
+    /** Path to file where the state is stored */
+    public final String statePath;
+
+    /** Position of the end of the last record read from the .shp file */
+    private long offset = 100;
+    /** Position of the last record read from the .shp file */
+    private long lastStart = 100;
+    /** Number of records read */
+    private int nrecords = 0;
+    /** Checksums of the parts of the .shp header that do not change when records are appended, and of the last record */
+    private long headerCrc = 0, lastCrc = 0;
+    /** Same checksums for the .dbf file */
+    private long dbfHeaderCrc = 0, dbfLastCrc = 0;
+    /** Files written from the records read so far */
+    private final List<String> outputs = new ArrayList<>();
+    /** Files written before the file was rewritten, which are no longer valid */
+    private final List<String> staleOutputs = new ArrayList<>();
+    /** Distinct values of each text attribute of the records read so far, in the order of their codes */
+    private final Map<String, List<String>> dictionaries = new LinkedHashMap<>();
+    /** True if the last call to readNew read the file from the beginning */
+    private boolean reset = false;
+
+    private TailReader(String _src, String _dbfname, String _statePath) {
+        src = _src;
+        dbfname = _dbfname;
+        statePath = _statePath;
+    }
+
+    /** Returns number of records read so far */
+    public int getNRecords() { return nrecords; }
+    /** Returns files written from the records read so far, in the order they were added */
+    public List<String> getOutputs() { return outputs; }
+    /** Returns files written before the file was rewritten, which should be deleted or replaced */
+    public List<String> getStaleOutputs() { return staleOutputs; }
+    /**
+     * True if the last call to readNew found that the file was truncated or rewritten, so it
+     * was read from the beginning. It is also set if readNew returned null, e.g. the file was emptied.
+     */
+    public boolean isReset() { return reset; }
+
+    /**
+     * Returns the dictionaries of text attributes of the records read so far, which should be used
+     * to encode the new records (see ShpFile.setDictionaries). They are saved with the state, and
+     * cleared when the file is read from the beginning.
+     */
+    public Map<String, List<String>> getDictionaries() { return dictionaries; }
+
+    /** Records that a file was written from the records returned by readNew */
+    public void addOutput(String path) {
+        outputs.add(path);
+    }
+
+    /**
+     * Creates a reader for a shape file and loads its state, if it was saved by a previous run.
+     *
+     * @param src path to .shp file
+     * @param dbfname path to .dbf file, or null if attributes are not needed
+     * @param statePath path to file where the state is stored, e.g. next to the exported files
+     * @return a reader positioned after the last record read by the previous run
+     * @throws Exception if the state file can not be read
+     */
+    public static TailReader open(String src, String dbfname, String statePath) throws Exception {
+        var tail = new TailReader(src, dbfname, statePath);
+        if (FilePath.isFile(statePath)) {
+            var p = new Properties();
+            try (var r = new FileReader(statePath)) {
+                p.load(r);
+            }
+            tail.offset = Long.parseLong(p.getProperty("shp.offset"));
+            tail.lastStart = Long.parseLong(p.getProperty("shp.last"));
+            tail.nrecords = Integer.parseInt(p.getProperty("shp.records"));
+            tail.headerCrc = Long.parseLong(p.getProperty("shp.header.crc"));
+            tail.lastCrc = Long.parseLong(p.getProperty("shp.last.crc"));
+            tail.dbfHeaderCrc = Long.parseLong(p.getProperty("dbf.header.crc", "0"));
+            tail.dbfLastCrc = Long.parseLong(p.getProperty("dbf.last.crc", "0"));
+            var files = p.getProperty("outputs", "");
+            for (String f: files.split("\\|")) {
+                if (!f.isEmpty()) tail.outputs.add(f);
+            }
+            var nfields = Integer.parseInt(p.getProperty("categories", "0"));
+            for (int j = 0; j < nfields; j++) {
+                var values = new ArrayList<String>();
+                var nvalues = Integer.parseInt(p.getProperty("categories." + j + ".size"));
+                for (int k = 0; k < nvalues; k++) {
+                    values.add(p.getProperty("categories." + j + "." + k));
+                }
+                tail.dictionaries.put(p.getProperty("categories." + j + ".field"), values);
+            }
+        }
+        return tail;
+    }
+
+    /**
+     * Saves the state, so the next run continues after the last record read.
+     * It should be called after the records have been processed.
+     */
+    public void save() throws Exception {
+        var p = new Properties();
+        p.setProperty("src", src);
+        p.setProperty("shp.offset", Long.toString(offset));
+        p.setProperty("shp.last", Long.toString(lastStart));
+        p.setProperty("shp.records", Integer.toString(nrecords));
+        p.setProperty("shp.header.crc", Long.toString(headerCrc));
+        p.setProperty("shp.last.crc", Long.toString(lastCrc));
+        p.setProperty("dbf.header.crc", Long.toString(dbfHeaderCrc));
+        p.setProperty("dbf.last.crc", Long.toString(dbfLastCrc));
+        p.setProperty("outputs", String.join("|", outputs));
+        // Values may contain any character, so each one is stored as a property
+        p.setProperty("categories", Integer.toString(dictionaries.size()));
+        var j = 0;
+        for (Map.Entry<String, List<String>> e: dictionaries.entrySet()) {
+            var values = e.getValue();
+            p.setProperty("categories." + j + ".field", e.getKey());
+            p.setProperty("categories." + j + ".size", Integer.toString(values.size()));
+            for (int k = 0; k < values.size(); k++) {
+                p.setProperty("categories." + j + "." + k, values.get(k));
+            }
+            j += 1;
+        }
+        try (var w = new FileWriter(statePath)) {
+            p.store(w, "State of incremental reading of " + src);
+        }
+    }
+
+    /** Returns the checksum of some bytes of a file */
+    private static long crc(MappedSource source, long pos, int len) throws Exception {
+        var b = source.at(pos, len).duplicate();
+        b.limit(b.position() + len);
+        var crc = new CRC32();
+        crc.update(b);
+        return crc.getValue();
+    }
+
+    /** Returns the checksum of the parts of the .shp header that do not change when records are appended */
+    private static long shpHeaderCrc(MappedSource shp) throws Exception {
+        // 0-23: file code and unused values; 28-35: version and shape type.
+        // The file length (24-27) and bounding box (36-99) change with each record.
+        return crc(shp, 0, 24) ^ (crc(shp, 28, 8) << 32);
+    }
+
+    /** Returns the checksum of the parts of the .dbf header that do not change when records are appended */
+    private static long dbfHeaderCrc(MappedSource dbf, int sizeHeader) throws Exception {
+        // 8-11: size of header and records; 32-n: fields.
+        // The date of last update (1-3) and number of records (4-7) change with each record.
+        return crc(dbf, 8, 4) ^ (crc(dbf, 32, sizeHeader - 32) << 32);
+    }
+
+    /**
+     * Reads the records appended to the file since the last call (or the last run).
+     * If the file was truncated or rewritten, all records are read again and the files
+     * written from previous records are moved to getStaleOutputs.
+     *
+     * @param options options that select which records are read
+     * @param filter condition on the attributes of records, or null to read all records
+     * @param setAttributes if true, attributes of the new records are read from the .dbf file
+     * @param names names of the fields to read, or null to read all fields
+     * @param verbose if true print summary of the new records
+     * @return a ShpFile with the new records and their attributes, or null if there are no new records
+     * @throws Exception
+     */
+    public ShpFile readNew(ReadOptions options, FieldFilter filter, boolean setAttributes, Set<String> names, boolean verbose) throws Exception {
+        assert dbfname != null || !(setAttributes || filter != null) : "Attributes require a .dbf file";
+        Echo.msg("Reading new records of .shp from: " + src, 0);
+
+        var shp = MappedSource.map(src);
+        var dbf = (dbfname == null) ? null : MappedSource.map(dbfname);
+        if (shp.size < 100) {
+            return null; // the header is still being written
+        }
+
+        // Records that are complete in the .dbf file
+        var dbfRecords = Integer.MAX_VALUE;
+        var sizeHeader = 0;
+        var sizeRecords = 0;
+        if (dbf != null && dbf.size >= 12) {
+            var h = dbf.at(0, 12).order(ByteOrder.LITTLE_ENDIAN);
+            var pos = h.position();
+            sizeHeader = Short.toUnsignedInt(h.getShort(pos + 8));
+            sizeRecords = Short.toUnsignedInt(h.getShort(pos + 10));
+            dbfRecords = (int) Math.min(Integer.toUnsignedLong(h.getInt(pos + 4)), Math.max(0, dbf.size - sizeHeader) / Math.max(1, sizeRecords));
+        } else if (dbf != null) {
+            dbfRecords = 0;
+        }
+
+        // Check that the records already read did not change
+        reset = false;
+        var valid = nrecords > 0 && offset <= shp.size
+                && headerCrc == shpHeaderCrc(shp)
+                && lastCrc == crc(shp, lastStart, (int) (offset - lastStart));
+        if (valid && dbf != null) {
+            valid = nrecords <= dbfRecords && dbf.size >= sizeHeader
+                    && dbfHeaderCrc == dbfHeaderCrc(dbf, sizeHeader)
+                    && dbfLastCrc == crc(dbf, sizeHeader + (long) (nrecords - 1) * sizeRecords, sizeRecords);
+        }
+        if (!valid) {
+            if (nrecords > 0) {
+                Echo.msg("  File was truncated or rewritten, reading it from the beginning", 0);
+            }
+            reset = nrecords > 0 || !outputs.isEmpty();
+            staleOutputs.addAll(outputs);
+            outputs.clear();
+            dictionaries.clear();
+            offset = 100;
+            lastStart = 100;
+            nrecords = 0;
+            headerCrc = shpHeaderCrc(shp);
+            lastCrc = 0;
+            if (dbf != null && sizeHeader > 32 && dbf.size >= sizeHeader) {
+                dbfHeaderCrc = dbfHeaderCrc(dbf, sizeHeader);
+            }
+        }
+
+        // Find the new records that are complete. The length in the header is
+        // updated by some writers after the record, so the file size is also checked.
+        var h = shp.at(0, 28).order(ByteOrder.BIG_ENDIAN);
+        var end = Math.min(Integer.toUnsignedLong(h.getInt(h.position() + 24)) * 2, shp.size);
+        var pos = offset;
+        var last = lastStart;
+        var count = 0;
+        while (pos + 8 <= end && nrecords + count < dbfRecords) {
+            // 4-7 int32 big Record length (in 16-bit words). Records have at least their shape type.
+            var b = shp.at(pos, 8).order(ByteOrder.BIG_ENDIAN);
+            var size = b.getInt(b.position() + 4) * 2L + 8;
+            if (size < 12) {
+                throw new Exception(String.format("Invalid length of record %d at position %d (%d bytes) in: %s", nrecords + count + 1, pos, size - 8, src));
+            }
+            if (pos + size > end) break; // still being written
+            last = pos;
+            pos += size;
+            count += 1;
+        }
+        if (count == 0) {
+            Echo.msg("  No new records", 0);
+            return null;
+        }
+
+        // Records are selected after counting the new ones, so the .dbf file
+        // already has all of them and the selection includes them
+        if (filter != null) {
+            options.records(DbfFile.select(dbfname, filter));
+        }
+        var result = ShpFile.readTail(src, shp, offset, pos, nrecords, options, verbose);
+        if (setAttributes) {
+            result.setColumns(DbfFile.read(dbfname, nrecords, count, names, verbose).getColumns());
+        }
+
+        offset = pos;
+        lastStart = last;
+        lastCrc = crc(shp, lastStart, (int) (offset - lastStart));
+        nrecords += count;
+        if (dbf != null) {
+            dbfLastCrc = crc(dbf, sizeHeader + (long) (nrecords - 1) * sizeRecords, sizeRecords);
+        }
+        Echo.msg(String.format("  Done reading %d new records (%d in total)", count, nrecords), 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TailReader[%s, %d records, offset %d, %d outputs]", src, nrecords, offset, outputs.size());
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.dbf;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the values of a TEXT field as integer codes and a dictionary with the distinct values
+ * (dictionary encoding). Codes are assigned in the order in which values first appear, so the
+ * first value has code 0. Empty values are a category like any other.
+ *
+ * Fields such as the unit of a geological map or the land use of a parcel have few distinct
+ * values, so they can be exported as numbers and used to color or filter shapes by category.
+ */
+public class FieldCategories {
+    public final FieldDescriptor fd;
+    /** Code of each value */
+    private final int[] codes;
+    /** Distinct values. The value with code k is stored at position k. */
+    private final List<String> values;
+
+    private FieldCategories(FieldDescriptor _fd, int[] _codes, List<String> _values) {
+        fd = _fd;
+        codes = _codes;
+        values = _values;
+    }
+
+    public int size() { return codes.length; }
+    /** @return number of distinct values */
+    public int getNCategories() { return values.size(); }
+    /** @return code of value i */
+    public int getCode(int i) { return codes[i]; }
+    /** @return value with a given code */
+    public String getValue(int code) { return values.get(code); }
+    /** @return distinct values in the order of their codes */
+    public List<String> getValues() { return values; }
+
+    /**
+     * Encodes the values of a field stored as a list, e.g. read by DbfFile.read.
+     *
+     * @param fl list of values. Values are compared by their text (see toString).
+     * @return codes of the values and the dictionary
+     */
+    public static FieldCategories encode(FieldList fl) {
+        var codes = new int[fl.values.size()];
+        var values = new ArrayList<String>();
+        var dictionary = new HashMap<String, Integer>();
+        for (int i = 0; i < codes.length; i++) {
+            var v = fl.values.get(i);
+            var s = (v == null) ? "" : v.toString();
+            var code = dictionary.get(s);
+            if (code == null) {
+                code = values.size();
+                dictionary.put(s, code);
+                values.add(s);
+            }
+            codes[i] = code;
+        }
+        return new FieldCategories(fl.fd, codes, values);
+    }
+
+    /**
+     * Creates the encoded values of a column (see FieldColumn.encode).
+     */
+    static FieldCategories of(FieldDescriptor fd, int[] codes, List<String> values) {
+        return new FieldCategories(fd, codes, values);
+    }
+
+    /**
+     * Returns the same values encoded with the codes of a dictionary shared by several files, e.g. the
+     * files of a collection written by exportToVTK --incremental. Values that are not in the dictionary
+     * are appended to it, so the codes of values that were already in it do not change.
+     *
+     * @param dictionary distinct values, the value with code k at position k. New values are added to it.
+     * @return codes of the values in the dictionary
+     */
+    public FieldCategories withDictionary(List<String> dictionary) {
+        var known = new HashMap<String, Integer>();
+        for (int k = 0; k < dictionary.size(); k++) {
+            known.put(dictionary.get(k), k);
+        }
+        // Code in the dictionary of each category
+        var map = new int[values.size()];
+        for (int k = 0; k < map.length; k++) {
+            var code = known.get(values.get(k));
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(values.get(k));
+            }
+            map[k] = code;
+        }
+        var c = new int[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            c[i] = map[codes[i]];
+        }
+        return new FieldCategories(fd, c, dictionary);
+    }
+
+    /**
+     * Returns the codes as an array of doubles, which can be exported as any other numeric attribute
+     * by EVTK, whose data arrays only store doubles. Codes are small integers, so they are represented
+     * exactly. Writers that store integers, such as VtuWriter, should use getCode instead.
+     */
+    public double[] toArrayDouble() {
+        var a = new double[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            a[i] = codes[i];
+        }
+        return a;
+    }
+
+    /**
+     * Writes the dictionary of several fields to a text file with one line for each
+     * category: name of the field, code and value, separated by commas. Values are
+     * quoted, as in a .csv file.
+     *
+     * @param path path to file
+     * @param categories encoded fields
+     * @throws Exception
+     */
+    public static void write(String path, List<FieldCategories> categories) throws Exception {
+        var dictionaries = new LinkedHashMap<String, List<String>>();
+        for (FieldCategories c: categories) {
+            dictionaries.put(c.fd.name, c.values);
+        }
+        write(path, dictionaries);
+    }
+
+    /**
+     * Writes the dictionaries of several fields in the same format (see write).
+     *
+     * @param path path to file
+     * @param dictionaries distinct values of each field, in the order of their codes
+     * @throws Exception
+     */
+    public static void write(String path, Map<String, List<String>> dictionaries) throws Exception {
+        try (var w = new BufferedWriter(new FileWriter(path))) {
+            w.write("field,code,value");
+            w.newLine();
+            for (Map.Entry<String, List<String>> e: dictionaries.entrySet()) {
+                var values = e.getValue();
+                for (int k = 0; k < values.size(); k++) {
+                    w.write(e.getKey() + "," + k + ",\"" + values.get(k).replace("\"", "\"\"") + "\"");
+                    w.newLine();
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Categories<<%s>> %d values, %d categories", fd.name, codes.length, values.size());
+    }
+}
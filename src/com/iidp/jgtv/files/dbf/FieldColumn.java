@@ -0,0 +1,449 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.dbf;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Stores all values of a field of a .dbf file as an array of primitives, decoded
+ * straight from the bytes of the records (see DbfFile.readColumnar).
+ *
+ * Unlike FieldList, values are not stored as boxed objects. The storage depends on the type of field:
+ *  - NUMBER fields without decimals: int[] (up to 9 digits) or long[] (up to 18 digits),
+ *  - NUMBER fields with decimals and FLOAT fields: double[],
+ *  - LOGICAL fields: a BitSet,
+ *  - DATE fields: int[] with values as yyyymmdd,
+ *  - TEXT (and MEMO) fields: the bytes of all values in a single array, without padding.
+ * Empty values are stored as null (see isNull), and as NaN in double[]. If a value of
+ * an integer field is not an integer, the field is stored as double[] from then on.
+ */
+public class FieldColumn {
+    /** How values are stored */
+    public enum Storage { INT, LONG, DOUBLE, LOGICAL, DATE, TEXT }
+
+    public final FieldDescriptor fd;
+    private Storage storage;
+    /** Number of values */
+    private int size = 0;
+
+    private int[] ints;
+    private long[] longs;
+    private double[] doubles;
+    private BitSet bools;
+    /** Text values, one after the other. Value i is stored between offsets[i] and offsets[i + 1] */
+    private byte[] chars;
+    private int[] offsets;
+    /** Positions of empty values */
+    private final BitSet nulls = new BitSet();
+
+    /**
+     * Creates an empty column.
+     *
+     * @param _fd descriptor of the field
+     * @param capacity expected number of values. Arrays grow if more values are added.
+     */
+    public FieldColumn(FieldDescriptor _fd, int capacity) {
+        fd = _fd;
+        storage = storageFor(fd);
+        capacity = Math.max(capacity, 16);
+        if (storage == Storage.INT || storage == Storage.DATE) {
+            ints = new int[capacity];
+        } else if (storage == Storage.LONG) {
+            longs = new long[capacity];
+        } else if (storage == Storage.DOUBLE) {
+            doubles = new double[capacity];
+        } else if (storage == Storage.LOGICAL) {
+            bools = new BitSet(capacity);
+        } else {
+            chars = new byte[capacity * Math.min(fd.flength, 16)];
+            offsets = new int[capacity + 1];
+        }
+    }
+
+    /** Returns how the values of a field are stored */
+    public static Storage storageFor(FieldDescriptor fd) {
+        if (fd.type == FIELD_TYPE.NUMBER && fd.fdecimal == 0) {
+            if (fd.flength <= 9) return Storage.INT;
+            if (fd.flength <= 18) return Storage.LONG;
+            return Storage.DOUBLE;
+        } else if (fd.type == FIELD_TYPE.NUMBER || fd.type == FIELD_TYPE.FLOAT) {
+            return Storage.DOUBLE;
+        } else if (fd.type == FIELD_TYPE.LOGICAL) {
+            return Storage.LOGICAL;
+        } else if (fd.type == FIELD_TYPE.DATE) {
+            return Storage.DATE;
+        } else {
+            return Storage.TEXT;
+        }
+    }
+
+    public Storage getStorage() { return storage; }
+    public int size() { return size; }
+    /** @return true if values are numbers (INT, LONG or DOUBLE) */
+    public boolean isNumeric() {
+        return storage == Storage.INT || storage == Storage.LONG || storage == Storage.DOUBLE;
+    }
+    /** @return true if value i was empty */
+    public boolean isNull(int i) { return nulls.get(i); }
+
+    /**
+     * Decodes a value from the bytes of a record and appends it to this column.
+     *
+     * @param row bytes of one or more records
+     * @param off position of the value in row. The value has fd.flength bytes.
+     */
+    public void decode(byte[] row, int off) {
+        // Text ends at the first null char, and blanks around it are ignored
+        var end = off;
+        var limit = off + fd.flength;
+        while (end < limit && row[end] != 0) end++;
+        while (end > off && NumberParser.isSpace(row[end - 1])) end--;
+        var start = off;
+        while (start < end && NumberParser.isSpace(row[start])) start++;
+
+        ensureCapacity(size + 1);
+        if (storage == Storage.TEXT) {
+            addText(row, start, end);
+        } else if (start == end) {
+            addNull();
+        } else if (storage == Storage.INT || storage == Storage.LONG) {
+            addInteger(row, start, end);
+        } else if (storage == Storage.DOUBLE) {
+            doubles[size] = NumberParser.parseDouble(row, start, end);
+        } else if (storage == Storage.LOGICAL) {
+            var c = row[start];
+            if (c == 'T' || c == 't' || c == 'Y' || c == 'y') {
+                bools.set(size);
+            } else if (c == '?') {
+                nulls.set(size);
+            }
+        } else if (storage == Storage.DATE) {
+            var v = (end - start == 8) ? NumberParser.parseLong(row, start, end) : NumberParser.NOT_A_LONG;
+            if (v < 0) {
+                nulls.set(size);
+            } else {
+                ints[size] = (int) v;
+            }
+        }
+        size += 1;
+    }
+
+    private void addNull() {
+        nulls.set(size);
+        if (storage == Storage.DOUBLE) doubles[size] = Double.NaN;
+    }
+
+    private void addText(byte[] row, int start, int end) {
+        var n = end - start;
+        var pos = offsets[size];
+        if (pos + n > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(pos + n, 2 * chars.length));
+        }
+        System.arraycopy(row, start, chars, pos, n);
+        offsets[size + 1] = pos + n;
+    }
+
+    private void addInteger(byte[] row, int start, int end) {
+        var v = NumberParser.parseLong(row, start, end);
+        if (v == NumberParser.NOT_A_LONG) {
+            // Not an integer, e.g. a value with decimals or an overflow marker (***)
+            toDoubles();
+            doubles[size] = NumberParser.parseDouble(row, start, end);
+        } else if (storage == Storage.INT) {
+            ints[size] = (int) v;
+        } else {
+            longs[size] = v;
+        }
+    }
+
+    /** Changes the storage of an integer column to doubles */
+    private void toDoubles() {
+        var d = new double[(storage == Storage.INT) ? ints.length : longs.length];
+        for (int i = 0; i < size; i++) {
+            d[i] = nulls.get(i) ? Double.NaN : (storage == Storage.INT) ? ints[i] : longs[i];
+        }
+        doubles = d;
+        ints = null;
+        longs = null;
+        storage = Storage.DOUBLE;
+    }
+
+    private void ensureCapacity(int n) {
+        if (storage == Storage.INT || storage == Storage.DATE) {
+            if (n > ints.length) ints = Arrays.copyOf(ints, Math.max(n, 2 * ints.length));
+        } else if (storage == Storage.LONG) {
+            if (n > longs.length) longs = Arrays.copyOf(longs, Math.max(n, 2 * longs.length));
+        } else if (storage == Storage.DOUBLE) {
+            if (n > doubles.length) doubles = Arrays.copyOf(doubles, Math.max(n, 2 * doubles.length));
+        } else if (storage == Storage.TEXT) {
+            if (n + 1 > offsets.length) offsets = Arrays.copyOf(offsets, Math.max(n + 1, 2 * offsets.length));
+        }
+    }
+
+    /** Shrinks arrays to the number of values, so they can be returned without copying them */
+    public void trim() {
+        if (ints != null) ints = Arrays.copyOf(ints, size);
+        if (longs != null) longs = Arrays.copyOf(longs, size);
+        if (doubles != null && doubles.length != size) doubles = Arrays.copyOf(doubles, size);
+        if (chars != null) {
+            chars = Arrays.copyOf(chars, offsets[size]);
+            offsets = Arrays.copyOf(offsets, size + 1);
+        }
+    }
+
+    /** Returns value i as a double. Empty values are NaN, logical values are 1 or 0 and dates are yyyymmdd. */
+    public double getDouble(int i) {
+        if (nulls.get(i)) return Double.NaN;
+        switch (storage) {
+            case INT: case DATE: return ints[i];
+            case LONG: return longs[i];
+            case DOUBLE: return doubles[i];
+            case LOGICAL: return bools.get(i) ? 1 : 0;
+            default: return Double.NaN;
+        }
+    }
+
+    /** Returns value i of an integer or date column. Empty values are 0. */
+    public long getLong(int i) {
+        assert storage == Storage.INT || storage == Storage.LONG || storage == Storage.DATE : "Not an integer field: " + fd;
+        return (storage == Storage.LONG) ? longs[i] : ints[i];
+    }
+
+    /** Returns value i of a logical column */
+    public boolean getBoolean(int i) {
+        assert storage == Storage.LOGICAL : "Not a logical field: " + fd;
+        return bools.get(i);
+    }
+
+    /** Returns value i as text, e.g. as the value of a DATE field as yyyy-mm-dd. Empty values are empty strings. */
+    public String getString(int i) {
+        if (storage == Storage.TEXT) {
+            return new String(chars, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.ISO_8859_1);
+        }
+        if (nulls.get(i)) return "";
+        switch (storage) {
+            case INT: return Integer.toString(ints[i]);
+            case LONG: return Long.toString(longs[i]);
+            case DOUBLE: return Double.toString(doubles[i]);
+            case LOGICAL: return Boolean.toString(bools.get(i));
+            default: return String.format("%04d-%02d-%02d", ints[i] / 10000, (ints[i] / 100) % 100, ints[i] % 100);
+        }
+    }
+
+    /**
+     * Returns the values of a numeric column as an array of doubles.
+     * The array of a DOUBLE column is returned without copying it, so it should not be modified.
+     */
+    public double[] toArrayDouble() {
+        if (storage == Storage.DOUBLE && doubles.length == size) {
+            return doubles;
+        }
+        var a = new double[size];
+        for (int i = 0; i < size; i++) {
+            a[i] = getDouble(i);
+        }
+        return a;
+    }
+
+    /**
+     * Creates a column with the values at some positions of this column.
+     *
+     * @param rows positions of the selected values (0-based)
+     * @return a new column with the same field descriptor
+     */
+    public FieldColumn select(int[] rows) {
+        var c = new FieldColumn(fd, rows.length);
+        c.storage = storage;
+        if (storage == Storage.DOUBLE && c.doubles == null) {
+            c.ints = null;
+            c.longs = null;
+            c.doubles = new double[Math.max(rows.length, 16)];
+        }
+        for (int i: rows) {
+            c.ensureCapacity(c.size + 1);
+            if (nulls.get(i)) c.nulls.set(c.size);
+            switch (storage) {
+                case INT: case DATE: c.ints[c.size] = ints[i]; break;
+                case LONG: c.longs[c.size] = longs[i]; break;
+                case DOUBLE: c.doubles[c.size] = doubles[i]; break;
+                case LOGICAL: c.bools.set(c.size, bools.get(i)); break;
+                default: c.addText(chars, offsets[i], offsets[i + 1]);
+            }
+            c.size += 1;
+        }
+        c.trim();
+        return c;
+    }
+
+    /**
+     * Encodes the values of a TEXT column as integer codes and a dictionary (see FieldCategories).
+     * Values are compared by their bytes in a hash table, so a String is only created
+     * for each distinct value, not for each record.
+     *
+     * @return codes of the values and the dictionary
+     */
+    public FieldCategories encode() {
+        assert storage == Storage.TEXT : "Not a text field: " + fd;
+        var codes = new int[size];
+        var values = new ArrayList<String>();
+        // Position of the first value and hash of each category, and table of categories by hash (-1 = empty).
+        // The table grows with the number of categories, which is usually much smaller than the number of values.
+        var firsts = new int[16];
+        var hashes = new int[16];
+        var table = new int[64];
+        var mask = table.length - 1;
+        Arrays.fill(table, -1);
+
+        for (int i = 0; i < size; i++) {
+            var start = offsets[i];
+            var end = offsets[i + 1];
+            var h = 0;
+            for (int p = start; p < end; p++) {
+                h = 31 * h + chars[p];
+            }
+            h ^= h >>> 16;
+            var slot = h & mask;
+            while (true) {
+                var k = table[slot];
+                if (k < 0) {
+                    k = values.size();
+                    if (k == firsts.length) {
+                        firsts = Arrays.copyOf(firsts, 2 * k);
+                        hashes = Arrays.copyOf(hashes, 2 * k);
+                    }
+                    firsts[k] = i;
+                    hashes[k] = h;
+                    table[slot] = k;
+                    values.add(new String(chars, start, end - start, StandardCharsets.ISO_8859_1));
+                    codes[i] = k;
+
+                    // Keep the table at most half full
+                    if (2 * values.size() > table.length) {
+                        table = new int[2 * table.length];
+                        mask = table.length - 1;
+                        Arrays.fill(table, -1);
+                        for (int c = 0; c < values.size(); c++) {
+                            var free = hashes[c] & mask;
+                            while (table[free] >= 0) free = (free + 1) & mask;
+                            table[free] = c;
+                        }
+                    }
+                    break;
+                }
+                var j = firsts[k];
+                if (Arrays.equals(chars, offsets[j], offsets[j + 1], chars, start, end)) {
+                    codes[i] = k;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+        return FieldCategories.of(fd, codes, values);
+    }
+
+    /**
+     * Joins columns with the values of consecutive ranges of records of the same field,
+     * e.g. decoded by different threads. If a part was changed to doubles (see decode),
+     * the result is also stored as doubles.
+     *
+     * @param fd descriptor of the field
+     * @param parts columns in the same order as the records
+     * @return a column with all values of the parts
+     */
+    public static FieldColumn concat(FieldDescriptor fd, List<FieldColumn> parts) {
+        var n = 0;
+        var nchars = 0;
+        var doubles = false;
+        for (FieldColumn p: parts) {
+            n += p.size;
+            if (p.storage == Storage.TEXT) nchars += p.offsets[p.size];
+            doubles |= p.storage == Storage.DOUBLE;
+        }
+
+        var c = new FieldColumn(fd, n);
+        if (doubles && c.storage != Storage.DOUBLE) {
+            c.toDoubles();
+        }
+        if (c.storage == Storage.TEXT && nchars > c.chars.length) {
+            c.chars = new byte[nchars];
+        }
+        for (FieldColumn p: parts) {
+            if (c.storage == Storage.TEXT) {
+                var pos = c.offsets[c.size];
+                System.arraycopy(p.chars, 0, c.chars, pos, p.offsets[p.size]);
+                for (int i = 1; i <= p.size; i++) {
+                    c.offsets[c.size + i] = pos + p.offsets[i];
+                }
+            } else if (c.storage == Storage.LOGICAL) {
+                for (int i = p.bools.nextSetBit(0); i >= 0 && i < p.size; i = p.bools.nextSetBit(i + 1)) {
+                    c.bools.set(c.size + i);
+                }
+            } else if (c.storage == p.storage) {
+                switch (c.storage) {
+                    case INT: case DATE: System.arraycopy(p.ints, 0, c.ints, c.size, p.size); break;
+                    case LONG: System.arraycopy(p.longs, 0, c.longs, c.size, p.size); break;
+                    default: System.arraycopy(p.doubles, 0, c.doubles, c.size, p.size);
+                }
+            } else {
+                for (int i = 0; i < p.size; i++) {
+                    c.doubles[c.size + i] = p.getDouble(i);
+                }
+            }
+            for (int i = p.nulls.nextSetBit(0); i >= 0 && i < p.size; i = p.nulls.nextSetBit(i + 1)) {
+                c.nulls.set(c.size + i);
+            }
+            c.size += p.size;
+        }
+        c.trim();
+        return c;
+    }
+
+    /** Returns the values as a FieldList of boxed values, for code that uses them */
+    public FieldList toFieldList() {
+        var values = new ArrayList<Object>(size);
+        for (int i = 0; i < size; i++) {
+            if (storage == Storage.TEXT) {
+                values.add(getString(i));
+            } else if (storage == Storage.LOGICAL) {
+                values.add(bools.get(i));
+            } else if (storage == Storage.DATE) {
+                values.add(nulls.get(i) ? null : LocalDate.of(ints[i] / 10000, (ints[i] / 100) % 100, ints[i] % 100));
+            } else {
+                values.add(getDouble(i));
+            }
+        }
+        return new FieldList(fd, values);
+    }
+
+    // Separator used to concatenate values in the string that represents this column.
+    private static final String SEP = ";";
+
+    @Override
+    public String toString() {
+        var s = new StringBuilder("Attribute<<" + fd.name + ">> ");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) s.append(SEP);
+            s.append(getString(i));
+        }
+        return s.toString();
+    }
+}
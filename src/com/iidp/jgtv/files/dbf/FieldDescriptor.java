@@ -38,12 +38,12 @@ public class FieldDescriptor {
     public final String name;
     /** Type of fields: text, number, etc */
     public final FIELD_TYPE type;
-    /** Length of record in bytes or characters (1 byte long)*/
-    public final byte flength;
+    /** Length of record in bytes or characters (1 byte long, or 2 bytes for wide text fields) */
+    public final int flength;
     /** Decimal digits. Length of decimal digits in bytes or characters (1 byte long) */
-    public final byte fdecimal;
+    public final int fdecimal;
 
-    public FieldDescriptor(String _name, String _ftype, byte _flength, byte _fdecimal) {
+    public FieldDescriptor(String _name, String _ftype, int _flength, int _fdecimal) {
         name = _name;
         var ft = _ftype.toCharArray()[0];
         type = FIELD_TYPE.getFieldType(ft);
@@ -65,10 +65,31 @@ public class FieldDescriptor {
     }
 
     public Object readValue(DataInputStream b) throws Exception {
+        if (type == FIELD_TYPE.FLOAT || type == FIELD_TYPE.NUMBER) {
+            return readDouble(b);
+        }
         var str = readString(b);
         return getValue(str);
     }
 
+    /** Buffer used to read numbers without creating a String for each one. Records of a file are read by one thread. */
+    private byte[] scratch;
+
+    /**
+     * Reads a number that is a field of a record straight from its bytes (see NumberParser).
+     *
+     * @param b binary stream.
+     * @return the value, or NaN if the field is empty or filled with '*'
+     * @throws Exception
+     */
+    public double readDouble(DataInputStream b) throws Exception {
+        if (scratch == null) {
+            scratch = new byte[flength];
+        }
+        b.readFully(scratch);
+        return NumberParser.parseDouble(scratch, 0, flength);
+    }
+
     public Object getValue(String str) {
         str = str.strip();
 
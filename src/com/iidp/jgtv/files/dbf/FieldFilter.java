@@ -0,0 +1,120 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.dbf;
+
+/**
+ * Condition on the value of a single field of a .dbf file, used to select records
+ * before reading the associated .shp file (see DbfFile.select).
+ *
+ * Conditions are written as:
+ *  - FIELD=VALUE: value is equal to VALUE. Numbers are compared as numbers, so 5 matches 5.000.
+ *  - FIELD=MIN:MAX: numeric value is in the closed range [MIN, MAX].
+ * Records with a blank value never match.
+ */
+public class FieldFilter {
+    /** Name of the field */
+    public final String name;
+    /** Value to match, or null if the condition is a range */
+    private final String value;
+    private final double min, max;
+
+    private FieldFilter(String _name, String _value, double _min, double _max) {
+        name = _name;
+        value = _value;
+        min = _min;
+        max = _max;
+    }
+
+    /** Creates a condition that matches records whose field is equal to a value */
+    public static FieldFilter equal(String name, String value) {
+        return new FieldFilter(name, value.strip(), Double.NaN, Double.NaN);
+    }
+
+    /** Creates a condition that matches records whose field is in the range [min, max] */
+    public static FieldFilter range(String name, double min, double max) {
+        return new FieldFilter(name, null, min, max);
+    }
+
+    /**
+     * Parses a condition written as FIELD=VALUE or FIELD=MIN:MAX.
+     *
+     * @param str condition
+     * @return a filter
+     * @throws Exception if the condition is not well formed
+     */
+    public static FieldFilter parse(String str) throws Exception {
+        var pos = str.indexOf('=');
+        if (pos < 1) {
+            throw new Exception("Expected FIELD=VALUE or FIELD=MIN:MAX, got: " + str);
+        }
+        var name = str.substring(0, pos).strip();
+        var rhs = str.substring(pos + 1);
+        var sep = rhs.indexOf(':');
+        if (sep < 0) {
+            return equal(name, rhs);
+        }
+        try {
+            return range(name, Double.parseDouble(rhs.substring(0, sep)), Double.parseDouble(rhs.substring(sep + 1)));
+        } catch (NumberFormatException e) {
+            throw new Exception("Bad range in condition: " + str);
+        }
+    }
+
+    /**
+     * Checks if the text stored in a field matches this condition.
+     *
+     * @param fd descriptor of the field
+     * @param str text of the field as stored in the file
+     * @return true if the record should be selected
+     */
+    public boolean test(FieldDescriptor fd, String str) {
+        var end = str.indexOf('\0');
+        if (end >= 0) {
+            str = str.substring(0, end);
+        }
+        str = str.strip();
+        if (str.isEmpty()) return false;
+
+        var numeric = (fd.type == FIELD_TYPE.NUMBER) || (fd.type == FIELD_TYPE.FLOAT);
+        if (value == null) {
+            if (!numeric) return false;
+            var v = parseDouble(str);
+            return (v >= min) && (v <= max);
+        } else if (numeric) {
+            return parseDouble(str) == parseDouble(value);
+        } else {
+            return str.equals(value);
+        }
+    }
+
+    // Badly formatted numbers are NaN, so they never match
+    private static double parseDouble(String str) {
+        try {
+            return Double.parseDouble(str);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (value == null) {
+            return String.format("%s=%g:%g", name, min, max);
+        }
+        return name + "=" + value;
+    }
+}
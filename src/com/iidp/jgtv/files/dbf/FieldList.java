@@ -16,6 +16,7 @@
  */
 package com.iidp.jgtv.files.dbf;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -30,6 +31,20 @@ public class FieldList {
         values = _values;
     }
 
+    /**
+     * Creates a list with the values at some positions of this list.
+     *
+     * @param rows positions of the selected values (0-based)
+     * @return a new list with the same field descriptor
+     */
+    public FieldList select(int[] rows) {
+        var selected = new ArrayList<Object>(rows.length);
+        for (int i: rows) {
+            selected.add(values.get(i));
+        }
+        return new FieldList(fd, selected);
+    }
+
     /**
      * Returns the list of values as an array of doubles.
      *
@@ -82,15 +97,14 @@ public class FieldList {
     @Override
     public String toString() {
         //assert type == FIELD_TYPE.FLOAT;
-        var a = "Attribute<<" + fd.name + ">> ";
+        var a = new StringBuilder("Attribute<<" + fd.name + ">> ");
         for (int i = 0; i < values.size(); i++) {
             if (i > 0) {
-                a =  a + SEP + values.get(i).toString();
-            } else {
-                a =  a + values.get(i).toString();
+                a.append(SEP);
             }
+            a.append(values.get(i));
         }
-        return a;
+        return a.toString();
     }
 }
 
@@ -0,0 +1,181 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.dbf;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses numbers stored as fixed width ASCII text in the fields of .dbf records
+ * (NUMBER and FLOAT fields) straight from their bytes, without creating a String.
+ *
+ * Values are padded with blanks, and some programs fill the field with '*' when
+ * a value does not fit in it. Both empty values and overflow markers are NaN.
+ *
+ * Most values have less than 16 significant digits, so they are computed as an
+ * integer mantissa multiplied or divided by an exact power of 10, which gives the
+ * same correctly rounded result as Double.parseDouble. Other values (e.g. with
+ * more digits or large exponents) are passed to Double.parseDouble.
+ */
+public class NumberParser {
+    /** Returned by parseLong if the text is not an integer */
+    public static final long NOT_A_LONG = Long.MIN_VALUE;
+
+    /** Powers of 10 that are exact doubles */
+    private static final double[] POW10 = new double[23];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+    /** Largest mantissa that is an exact double */
+    private static final long MAX_EXACT = 1L << 53;
+
+    /** Same as String.strip for 1-byte chars */
+    static boolean isSpace(byte c) {
+        return c == ' ' || (c >= 9 && c <= 13) || (c >= 28 && c <= 31);
+    }
+
+    /**
+     * Parses a decimal number, e.g. " -12.50", "3.1E+05" or ".5".
+     *
+     * @param b bytes of a record
+     * @param start position of the first byte of the field
+     * @param end position after the last byte of the field
+     * @return the value, or NaN if the field is empty or is not a number (e.g. "*****")
+     */
+    public static double parseDouble(byte[] b, int start, int end) {
+        while (start < end && isSpace(b[start])) start++;
+        while (end > start && (isSpace(b[end - 1]) || b[end - 1] == 0)) end--;
+        if (start == end) return Double.NaN;
+
+        var i = start;
+        var negative = false;
+        if (b[i] == '-' || b[i] == '+') {
+            negative = b[i] == '-';
+            i++;
+        }
+
+        // Mantissa as an integer, and position of the decimal point
+        var mantissa = 0L;
+        var ndigits = 0;   // significant digits in mantissa
+        var scale = 0;     // number of digits after the decimal point
+        var any = false;
+        var point = false;
+        for (; i < end; i++) {
+            var c = b[i];
+            if (c >= '0' && c <= '9') {
+                any = true;
+                if (ndigits > 0 || c != '0') {
+                    if (ndigits == 18) return fallback(b, start, end);
+                    ndigits++;
+                }
+                mantissa = 10 * mantissa + (c - '0');
+                if (point) scale++;
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (!any) return fallback(b, start, end);
+
+        // Optional exponent
+        var exponent = 0;
+        if (i < end && (b[i] == 'e' || b[i] == 'E')) {
+            i++;
+            var negativeExp = false;
+            if (i < end && (b[i] == '-' || b[i] == '+')) {
+                negativeExp = b[i] == '-';
+                i++;
+            }
+            var first = i;
+            for (; i < end && b[i] >= '0' && b[i] <= '9'; i++) {
+                if (i - first > 4) return fallback(b, start, end);
+                exponent = 10 * exponent + (b[i] - '0');
+            }
+            if (i == first) return fallback(b, start, end);
+            if (negativeExp) exponent = -exponent;
+        }
+        if (i != end) return fallback(b, start, end);
+
+        var e = exponent - scale;
+        double v;
+        if (mantissa == 0) {
+            v = 0;
+        } else if (mantissa <= MAX_EXACT && e >= 0 && e < POW10.length) {
+            v = mantissa * POW10[e];
+        } else if (mantissa <= MAX_EXACT && e < 0 && -e < POW10.length) {
+            v = mantissa / POW10[-e];
+        } else {
+            return fallback(b, start, end);
+        }
+        return negative ? -v : v;
+    }
+
+    /** Parses values that are not handled by the fast path. It is the only case that creates a String. */
+    private static double fallback(byte[] b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (b[i] == '*') return Double.NaN; // overflow marker
+        }
+        try {
+            return Double.parseDouble(new String(b, start, end - start, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Parses an integer, e.g. " -1250". Values with more than 18 digits are not parsed.
+     *
+     * @param b bytes of a record
+     * @param start position of the first byte of the field
+     * @param end position after the last byte of the field
+     * @return the value, or NOT_A_LONG if the field is empty or is not an integer
+     *         (e.g. it has decimals or it is an overflow marker)
+     */
+    public static long parseLong(byte[] b, int start, int end) {
+        while (start < end && isSpace(b[start])) start++;
+        while (end > start && (isSpace(b[end - 1]) || b[end - 1] == 0)) end--;
+
+        var negative = start < end && b[start] == '-';
+        if (start < end && (b[start] == '-' || b[start] == '+')) start++;
+        if (start == end || end - start > 18) return NOT_A_LONG;
+
+        var v = 0L;
+        for (int i = start; i < end; i++) {
+            var d = b[i] - '0';
+            if (d < 0 || d > 9) return NOT_A_LONG;
+            v = 10 * v + d;
+        }
+        return negative ? -v : v;
+    }
+
+    /**
+     * Parses a field with the type of a field descriptor: fields without decimals
+     * are parsed as integers if possible, and other fields as decimal numbers.
+     *
+     * @return the value, or NaN if the field is empty or is not a number
+     */
+    public static double parse(FieldDescriptor fd, byte[] b, int start, int end) {
+        if (fd.type == FIELD_TYPE.NUMBER && fd.fdecimal == 0) {
+            var v = parseLong(b, start, end);
+            if (v != NOT_A_LONG) return v;
+        }
+        return parseDouble(b, start, end);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.examples;
+
+import com.iidp.jgtv.files.dbf.NumberParser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Compares parsing numbers of .dbf fields by creating a String for each value
+ * (as FieldDescriptor.getValue) with parsing them straight from their bytes (see NumberParser).
+ * Values are stored as in a .dbf file: right aligned in fields of fixed width, some of them
+ * with exponents, blanks or overflow markers. Both methods should give the same values.
+ *
+ * Usage: Bench_DbfNumbers [number of values]
+ */
+public class Bench_DbfNumbers {
+    private static final int WIDTH = 19;
+    private static final int WARMUP = 5;
+    private static final int REPEAT = 10;
+
+    private interface Parser {
+        double parse(byte[] b, int start, int end);
+    }
+
+    private static double parseString(byte[] b, int start, int end) {
+        var str = new String(b, start, end - start, StandardCharsets.ISO_8859_1).strip();
+        if (str.isEmpty() || str.startsWith("*")) return Double.NaN;
+        return Double.parseDouble(str);
+    }
+
+    /** Parses all values and returns the best time in seconds */
+    private static double run(Parser p, byte[] data, int n, double[] values) {
+        var best = Double.MAX_VALUE;
+        for (int r = 0; r < WARMUP + REPEAT; r++) {
+            var t0 = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                values[i] = p.parse(data, i * WIDTH, (i + 1) * WIDTH);
+            }
+            var t = (System.nanoTime() - t0) * 1e-9;
+            if (r >= WARMUP) best = Math.min(best, t);
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws Exception {
+        var n = (args.length > 0) ? Integer.parseInt(args[0]) : 2000000;
+
+        var rnd = new Random(0);
+        var data = new byte[n * WIDTH];
+        for (int i = 0; i < n; i++) {
+            String s;
+            var k = rnd.nextInt(100);
+            if (k < 40) {
+                s = String.format("%.3f", (rnd.nextDouble() - 0.5) * 1e6);
+            } else if (k < 70) {
+                s = Long.toString(rnd.nextInt());
+            } else if (k < 90) {
+                s = String.format("%.15f", rnd.nextDouble());
+            } else if (k < 95) {
+                s = String.format("%.6E", rnd.nextGaussian() * 1e30);
+            } else if (k < 98) {
+                s = "";
+            } else {
+                s = "*".repeat(WIDTH);
+            }
+            var field = String.format("%" + WIDTH + "s", s).getBytes(StandardCharsets.ISO_8859_1);
+            System.arraycopy(field, 0, data, i * WIDTH, WIDTH);
+        }
+        System.out.printf("Parsing %d values of %d chars\n", n, WIDTH);
+
+        var v1 = new double[n];
+        var v2 = new double[n];
+        var ts = run(Bench_DbfNumbers::parseString, data, n, v1);
+        var tb = run(NumberParser::parseDouble, data, n, v2);
+        for (int i = 0; i < n; i++) {
+            assert Double.doubleToLongBits(v1[i]) == Double.doubleToLongBits(v2[i]) :
+                    "Different values: " + new String(data, i * WIDTH, WIDTH, StandardCharsets.ISO_8859_1) + " " + v1[i] + " " + v2[i];
+        }
+        System.out.printf("%-12s %12s %8s\n", "", "values/s", "ns/value");
+        System.out.printf("%-12s %12.3g %8.1f\n", "String", n / ts, ts * 1e9 / n);
+        System.out.printf("%-12s %12.3g %8.1f\n", "NumberParser", n / tb, tb * 1e9 / n);
+        System.out.printf("speedup: %.2f\n", ts / tb);
+
+        System.out.println("*** ALL DONE ***");
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.examples;
+
+import com.iidp.jgtv.files.shp.CoordinateDecoder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares decoding coordinates one value at a time with decoding them in bulk
+ * (see CoordinateDecoder). Both compute the range of the points in the same pass.
+ * Points are decoded from a direct buffer, as they are from a mapped file, in records
+ * of different sizes. Each case is repeated several times after a warm up, and the
+ * best time is reported.
+ *
+ * Usage: Bench_Decode [total number of points]
+ */
+public class Bench_Decode {
+    private static final int WARMUP = 5;
+    private static final int REPEAT = 10;
+
+    private interface Kernel {
+        void decode(ByteBuffer b, int n, double[] x, double[] y, int off, double[] range);
+    }
+
+    /** Decodes all points of the buffer in records of npoints, and returns the best time in seconds */
+    private static double run(Kernel k, ByteBuffer data, int total, int npoints, double[] x, double[] y, double[] range) {
+        var best = Double.MAX_VALUE;
+        for (int r = 0; r < WARMUP + REPEAT; r++) {
+            var t0 = System.nanoTime();
+            data.position(0);
+            CoordinateDecoder.reset(range);
+            for (int off = 0; off < total; off += npoints) {
+                k.decode(data, Math.min(npoints, total - off), x, y, off, range);
+            }
+            var t = (System.nanoTime() - t0) * 1e-9;
+            if (r >= WARMUP) best = Math.min(best, t);
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws Exception {
+        var total = (args.length > 0) ? Integer.parseInt(args[0]) : 4000000;
+
+        var data = ByteBuffer.allocateDirect(16 * total).order(ByteOrder.LITTLE_ENDIAN);
+        var rnd = new Random(0);
+        for (int i = 0; i < 2 * total; i++) {
+            data.putDouble(rnd.nextDouble() * 1e6);
+        }
+        var mb = 16.0 * total / (1024 * 1024);
+        System.out.printf("Decoding %d points (%.1f MB)\n", total, mb);
+
+        var x1 = new double[total];
+        var y1 = new double[total];
+        var x2 = new double[total];
+        var y2 = new double[total];
+        var range1 = new double[4];
+        var range2 = new double[4];
+        var decoder = new CoordinateDecoder();
+
+        System.out.printf("%-14s %12s %12s %8s\n", "points/record", "scalar MB/s", "bulk MB/s", "speedup");
+        for (int npoints: new int[] {1, 4, 16, 64, 256, 4096, 65536}) {
+            var ts = run(CoordinateDecoder::readXYScalar, data, total, npoints, x1, y1, range1);
+            var tb = run(decoder::readXY, data, total, npoints, x2, y2, range2);
+            assert Arrays.equals(x1, x2) && Arrays.equals(y1, y2) && Arrays.equals(range1, range2) : "Different results";
+            System.out.printf("%-14d %12.1f %12.1f %8.2f\n", npoints, mb / ts, mb / tb, ts / tb);
+        }
+
+        System.out.println("*** ALL DONE ***");
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.examples;
+
+import com.iidp.jgtv.files.DbfFile;
+import com.iidp.jgtv.others.FilePath;
+
+/**
+ * Measures how reading a .dbf file into columns scales with the number of threads.
+ *
+ * Usage: Bench_ParallelDbf [nrecords]
+ * A synthetic file is written to tmp/ and read with the sequential columnar reader
+ * and with the parallel reader using 1, 2, 4, ... threads up to the number of processors.
+ * Values of all readers should be the same.
+ */
+public class Bench_ParallelDbf {
+    private static final int REPETITIONS = 5;
+
+    private static double time(String src, int threads) throws Exception {
+        var best = Double.MAX_VALUE;
+        for (int i = 0; i < REPETITIONS; i++) {
+            var t0 = System.nanoTime();
+            var dbf = (threads == 0) ? DbfFile.readColumnar(src, false) : DbfFile.readParallel(src, null, threads, false);
+            var t1 = System.nanoTime();
+            best = Math.min(best, (t1 - t0) * 1e-9);
+            assert dbf.getColumns().size() == dbf.getNFields();
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws Exception {
+        var nrecords = (args.length > 0) ? Integer.parseInt(args[0]) : 2000000;
+
+        FilePath.checkDirectory("tmp", true);
+        var src = "tmp/bench_parallel.dbf";
+        var size = SyntheticShp.writeDbf(src, nrecords);
+        var mb = size / (1024.0 * 1024.0);
+
+        // Both readers give the same values
+        var ref = DbfFile.readColumnar(src, false).getColumns();
+        var par = DbfFile.readParallel(src, null, 0, false).getColumns();
+        for (int j = 0; j < ref.size(); j++) {
+            assert ref.get(j).toString().equals(par.get(j).toString()) : "Different values in field: " + ref.get(j).fd.name;
+        }
+
+        var ncores = Runtime.getRuntime().availableProcessors();
+        var results = new StringBuilder();
+        results.append(String.format("File: %d records, %.1f MB, %d processors\n", nrecords, mb, ncores));
+
+        time(src, 0); // warm up
+        var t = time(src, 0);
+        results.append(String.format("%-12s %8.3f s  %8.1f MB/s  %8.2f M records/s\n", "sequential", t, mb / t, nrecords * 1e-6 / t));
+        for (int threads = 1; threads <= ncores; threads *= 2) {
+            t = time(src, threads);
+            results.append(String.format("%-12s %8.3f s  %8.1f MB/s  %8.2f M records/s\n", threads + " threads", t, mb / t, nrecords * 1e-6 / t));
+        }
+
+        System.out.println(results);
+        System.out.println("*** ALL DONE ***");
+    }
+}
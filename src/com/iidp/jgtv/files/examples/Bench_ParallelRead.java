@@ -0,0 +1,68 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.examples;
+
+import com.iidp.jgtv.files.ShpFile;
+import com.iidp.jgtv.others.FilePath;
+
+/**
+ * Measures how reading a .shp file scales with the number of threads.
+ *
+ * Usage: Bench_ParallelRead [nrecords] [npoints per record]
+ * A synthetic file is written to tmp/ and read with the sequential mapped reader
+ * and with the parallel reader using 1, 2, 4, ... threads up to the number of processors.
+ */
+public class Bench_ParallelRead {
+    private static final int REPETITIONS = 5;
+
+    private static double time(String src, int threads) throws Exception {
+        var best = Double.MAX_VALUE;
+        for (int i = 0; i < REPETITIONS; i++) {
+            var t0 = System.nanoTime();
+            var shp = (threads == 0) ? ShpFile.readMapped(src) : ShpFile.readParallel(src, threads);
+            var t1 = System.nanoTime();
+            best = Math.min(best, (t1 - t0) * 1e-9);
+            assert shp != null;
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws Exception {
+        var nrecords = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        var npoints = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+
+        FilePath.checkDirectory("tmp", true);
+        var src = "tmp/bench_parallel.shp";
+        var size = SyntheticShp.writePolylines(src, nrecords, npoints);
+        var mb = size / (1024.0 * 1024.0);
+
+        var ncores = Runtime.getRuntime().availableProcessors();
+        var results = new StringBuilder();
+        results.append(String.format("File: %d records, %d points per record, %.1f MB, %d processors\n", nrecords, npoints, mb, ncores));
+
+        time(src, 0); // warm up
+        var t = time(src, 0);
+        results.append(String.format("%-12s %8.3f s  %8.1f MB/s\n", "sequential", t, mb / t));
+        for (int threads = 1; threads <= ncores; threads *= 2) {
+            t = time(src, threads);
+            results.append(String.format("%-12s %8.3f s  %8.1f MB/s\n", threads + " threads", t, mb / t));
+        }
+
+        System.out.println(results);
+        System.out.println("*** ALL DONE ***");
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.examples;
+
+import com.iidp.jgtv.files.ShpFile;
+import com.iidp.jgtv.others.FilePath;
+
+/**
+ * Compares reading a large POINT file as a list of records (one AShape per point)
+ * with reading it straight into arrays of primitives (see PointSet).
+ *
+ * Usage: Bench_PointRead [nrecords]
+ */
+public class Bench_PointRead {
+
+    private static long usedMemory() throws Exception {
+        var rt = Runtime.getRuntime();
+        // A single call does not always collect everything that was released
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    public static void main(String[] args) throws Exception {
+        var nrecords = (args.length > 0) ? Integer.parseInt(args[0]) : 2000000;
+
+        FilePath.checkDirectory("tmp", true);
+        var src = "tmp/bench_points.shp";
+        var size = SyntheticShp.writePoints(src, nrecords, false);
+        var mb = size / (1024.0 * 1024.0);
+        System.out.printf("File: %d points, %.1f MB\n", nrecords, mb);
+
+        var base = usedMemory();
+        var t0 = System.nanoTime();
+        var shp = ShpFile.readMapped(src);
+        var t1 = System.nanoTime();
+        var used = usedMemory() - base;
+        System.out.printf("%-10s %8.3f s  %8.1f MB/s  %8.1f MB in memory\n", "records", (t1 - t0) * 1e-9, mb * 1e9 / (t1 - t0), used / 1048576.0);
+        assert shp.getRecordIds().length == nrecords;
+        shp = null;
+
+        base = usedMemory();
+        t0 = System.nanoTime();
+        shp = ShpFile.readColumnar(src);
+        t1 = System.nanoTime();
+        used = usedMemory() - base;
+        System.out.printf("%-10s %8.3f s  %8.1f MB/s  %8.1f MB in memory\n", "points", (t1 - t0) * 1e-9, mb * 1e9 / (t1 - t0), used / 1048576.0);
+        assert shp.getPoints().getNPoints() == nrecords;
+
+        System.out.println("*** ALL DONE ***");
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.examples;
+
+import com.iidp.jgtv.files.ShpFile;
+import com.iidp.jgtv.files.shp.ReadOptions;
+import com.iidp.jgtv.others.AsyncFileReader;
+import com.iidp.jgtv.others.FilePath;
+
+/**
+ * Compares the read speed (MB/s) of the different modes used to read .shp files:
+ * stream, mmap, columnar and async.
+ *
+ * Usage: Bench_ReadModes [path to .shp file]
+ * If no file is given, a synthetic file is written to tmp/. Note that after the first
+ * read the file is in the page cache of the OS, so the gain of overlapping disk reads
+ * and decoding (async mode) is only visible for files that are not cached, e.g. on
+ * network storage or after dropping the cache.
+ */
+public class Bench_ReadModes {
+    private static final int REPETITIONS = 3;
+
+    private interface Reader {
+        ShpFile read(String src) throws Exception;
+    }
+
+    private static double time(String src, Reader reader) throws Exception {
+        var best = Double.MAX_VALUE;
+        for (int i = 0; i < REPETITIONS; i++) {
+            var t0 = System.nanoTime();
+            var shp = reader.read(src);
+            var t1 = System.nanoTime();
+            best = Math.min(best, (t1 - t0) * 1e-9);
+            assert shp != null;
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws Exception {
+        var src = "tmp/bench_modes.shp";
+        if (args.length > 0) {
+            src = args[0];
+        } else {
+            FilePath.checkDirectory("tmp", true);
+            SyntheticShp.writePolylines(src, 100000, 50);
+        }
+        var mb = new java.io.File(src).length() / (1024.0 * 1024.0);
+
+        var results = new StringBuilder();
+        results.append(String.format("File: %s, %.1f MB\n", src, mb));
+
+        var names = new String[] {"stream", "mmap", "columnar", "async"};
+        var readers = new Reader[] {
+            s -> ShpFile.read(s),
+            s -> ShpFile.readMapped(s),
+            s -> ShpFile.readColumnar(s),
+            s -> ShpFile.readAsync(s, new ReadOptions(), AsyncFileReader.DEFAULT_CHUNK_SIZE, AsyncFileReader.DEFAULT_NBUFFERS, false)
+        };
+        for (int i = 0; i < names.length; i++) {
+            var t = time(src, readers[i]);
+            results.append(String.format("%-10s %8.3f s  %8.1f MB/s\n", names[i], t, mb / t));
+        }
+
+        System.out.println(results);
+        System.out.println("*** ALL DONE ***");
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.examples;
+
+import com.iidp.jgtv.files.ShpFile;
+import com.iidp.jgtv.others.BoundingBox;
+
+/**
+ * Computes the same statistics as Ex_Streaming, but reading coordinates straight from
+ * the mapped file through a ShapeView, and counts the records that intersect a window.
+ * Values are compared with those read by stream, which copies each record.
+ */
+public class Ex_ShapeView {
+
+    public static void main(String[] args) throws Exception {
+        var src_shp = (args.length > 0) ? args[0] : "examples/ex2_Chile_watersheds/Cuencas_DGA.shp";
+
+        // Reference values from the records copied by stream
+        var ref = new double[] { 0, 0 };
+        ShpFile.stream(src_shp, r -> {
+            for (int i = 0; i < r.getNPoints(); i++) {
+                ref[0] += r.getX()[i];
+                ref[1] += r.getY()[i];
+            }
+        });
+
+        var t0 = System.nanoTime();
+        var window = BoundingBox.parse("250000,6000000,350000,6500000");
+        long nrecords = 0, npoints = 0, nselected = 0;
+        double sx = 0, sy = 0, ymin = Double.MAX_VALUE, ymax = -Double.MAX_VALUE;
+        var v = ShpFile.view(src_shp);
+        while (v.next()) {
+            nrecords += 1;
+            npoints += v.pointCount();
+            if (v.intersects(window)) nselected += 1;
+            for (int i = 0; i < v.pointCount(); i++) {
+                var y = v.y(i);
+                sx += v.x(i);
+                sy += y;
+                ymin = Math.min(ymin, y);
+                ymax = Math.max(ymax, y);
+            }
+        }
+        var t1 = System.nanoTime();
+
+        System.out.printf("records: %d  points: %d  ymin: %g  ymax: %g  in window: %d  (%.1f ms)\n",
+                          nrecords, npoints, ymin, ymax, nselected, (t1 - t0) * 1e-6);
+        assert sx == ref[0] && sy == ref[1] : "Different coordinates";
+        System.out.println("*** ALL DONE ***");
+    }
+}
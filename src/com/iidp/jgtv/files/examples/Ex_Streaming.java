@@ -0,0 +1,44 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.examples;
+
+import com.iidp.jgtv.files.ShpFile;
+
+/**
+ * Computes some statistics of a .shp file without keeping its records in memory.
+ */
+public class Ex_Streaming {
+
+    public static void main(String[] args) throws Exception {
+        var src_shp = "examples/ex2_Chile_watersheds/Cuencas_DGA.shp";
+
+        var stats = new double[] { 0, 0, Double.MAX_VALUE, -Double.MAX_VALUE };
+        var shp = ShpFile.stream(src_shp, r -> {
+            stats[0] += 1;
+            stats[1] += r.getNPoints();
+            var y = r.getY();
+            for (int i = 0; i < r.getNPoints(); i++) {
+                stats[2] = Math.min(stats[2], y[i]);
+                stats[3] = Math.max(stats[3], y[i]);
+            }
+        });
+
+        System.out.println(shp);
+        System.out.printf("records: %d  points: %d  ymin: %g  ymax: %g\n", (long) stats[0], (long) stats[1], stats[2], stats[3]);
+        System.out.println("*** ALL DONE ***");
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.examples;
+
+import com.iidp.jgtv.others.FilePath;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes synthetic .shp and .shx files of arbitrary size, which are used by the
+ * benchmarks in this package. Polyline records have a single part that follows
+ * a circle, so the files look like a set of elevation contours. Point files look
+ * like a survey on a regular grid. Attribute files (.dbf) have a numeric id, an
+ * elevation, a name and a date for each record.
+ */
+public class SyntheticShp {
+
+    private static void writeHeader(DataOutputStream o, long lengthBytes, int type, ByteBuffer le) throws Exception {
+        o.writeInt(9994);
+        for (int i = 0; i < 5; i++) o.writeInt(0);
+        o.writeInt((int) (lengthBytes / 2));
+        le.clear();
+        le.putInt(1000).putInt(type);
+        le.putDouble(0.0).putDouble(0.0).putDouble(1000.0).putDouble(1000.0);
+        le.putDouble(0.0).putDouble(0.0).putDouble(0.0).putDouble(0.0);
+        o.write(le.array(), 0, le.position());
+    }
+
+    /**
+     * Writes a .shp file with polylines and its .shx file.
+     *
+     * @param path path to .shp file
+     * @param nrecords number of records
+     * @param npoints number of points in each record
+     * @return size of the .shp file in bytes
+     */
+    public static long writePolylines(String path, int nrecords, int npoints) throws Exception {
+        var contentBytes = 4 + 32 + 4 + 4 + 4 + 16 * npoints;
+        var recordBytes = 8 + contentBytes;
+        var length = 100 + (long) nrecords * recordBytes;
+
+        var le = ByteBuffer.allocate(Math.max(100, contentBytes)).order(ByteOrder.LITTLE_ENDIAN);
+        var shp = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 20));
+        var shx = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FilePath.replaceExtension(path, "shx")), 1 << 20));
+        writeHeader(shp, length, 3, le);
+        writeHeader(shx, 100 + 8L * nrecords, 3, le);
+
+        var offset = 100L;
+        for (int r = 0; r < nrecords; r++) {
+            shp.writeInt(r + 1);
+            shp.writeInt(contentBytes / 2);
+            shx.writeInt((int) (offset / 2));
+            shx.writeInt(contentBytes / 2);
+
+            var cx = (r * 37) % 1000;
+            var cy = (r * 91) % 1000;
+            var radius = 1.0 + r % 10;
+
+            le.clear();
+            le.putInt(3);
+            le.putDouble(cx - radius).putDouble(cy - radius).putDouble(cx + radius).putDouble(cy + radius);
+            le.putInt(1).putInt(npoints).putInt(0);
+            for (int i = 0; i < npoints; i++) {
+                var a = 2 * Math.PI * i / (npoints - 1);
+                le.putDouble(cx + radius * Math.cos(a));
+                le.putDouble(cy + radius * Math.sin(a));
+            }
+            shp.write(le.array(), 0, le.position());
+            offset += recordBytes;
+        }
+        shp.close();
+        shx.close();
+        return length;
+    }
+
+    /**
+     * Writes a .shp file with points and its .shx file.
+     * Points are placed on a regular grid and, for POINTZ files, z is a smooth surface.
+     *
+     * @param path path to .shp file
+     * @param nrecords number of records (points)
+     * @param withZ if true writes a POINTZ file, otherwise a POINT file
+     * @return size of the .shp file in bytes
+     */
+    public static long writePoints(String path, int nrecords, boolean withZ) throws Exception {
+        var type = withZ ? 11 : 1;
+        var contentBytes = withZ ? 4 + 32 : 4 + 16; // type + x, y, z, m or type + x, y
+        var recordBytes = 8 + contentBytes;
+        var length = 100 + (long) nrecords * recordBytes;
+
+        var le = ByteBuffer.allocate(100).order(ByteOrder.LITTLE_ENDIAN);
+        var shp = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 20));
+        var shx = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FilePath.replaceExtension(path, "shx")), 1 << 20));
+        writeHeader(shp, length, type, le);
+        writeHeader(shx, 100 + 8L * nrecords, type, le);
+
+        var side = (int) Math.ceil(Math.sqrt(nrecords));
+        var offset = 100L;
+        for (int r = 0; r < nrecords; r++) {
+            shp.writeInt(r + 1);
+            shp.writeInt(contentBytes / 2);
+            shx.writeInt((int) (offset / 2));
+            shx.writeInt(contentBytes / 2);
+
+            var x = 1000.0 * (r % side) / side;
+            var y = 1000.0 * (r / side) / side;
+
+            le.clear();
+            le.putInt(type);
+            le.putDouble(x).putDouble(y);
+            if (withZ) {
+                le.putDouble(100.0 * Math.sin(x / 100.0) * Math.cos(y / 100.0));
+                le.putDouble(r);
+            }
+            shp.write(le.array(), 0, le.position());
+            offset += recordBytes;
+        }
+        shp.close();
+        shx.close();
+        return length;
+    }
+
+    private static void writeField(ByteBuffer le, String name, char type, int length, int decimals) {
+        var n = name.getBytes(StandardCharsets.ISO_8859_1);
+        le.put(n).put(new byte[11 - n.length]);
+        le.put((byte) type).putInt(0);
+        le.put((byte) length).put((byte) decimals);
+        le.put(new byte[14]);
+    }
+
+    /**
+     * Writes a .dbf file with the attributes of a synthetic file: ID (N 10), ELEV (N 12.3),
+     * NAME (C 20) and DATE (D 8). Some elevations are empty.
+     *
+     * @param path path to .dbf file
+     * @param nrecords number of records
+     * @return size of the .dbf file in bytes
+     */
+    public static long writeDbf(String path, int nrecords) throws Exception {
+        var nfields = 4;
+        var sizeHeader = 32 + 32 * nfields + 1;
+        var sizeRecord = 1 + 10 + 12 + 20 + 8;
+
+        var le = ByteBuffer.allocate(sizeHeader).order(ByteOrder.LITTLE_ENDIAN);
+        le.put((byte) 3).put((byte) 120).put((byte) 1).put((byte) 1);
+        le.putInt(nrecords).putShort((short) sizeHeader).putShort((short) sizeRecord);
+        le.put(new byte[20]);
+        writeField(le, "ID", 'N', 10, 0);
+        writeField(le, "ELEV", 'N', 12, 3);
+        writeField(le, "NAME", 'C', 20, 0);
+        writeField(le, "DATE", 'D', 8, 0);
+        le.put((byte) 0x0D);
+
+        var dbf = new BufferedOutputStream(new FileOutputStream(path), 1 << 20);
+        dbf.write(le.array());
+        for (int r = 0; r < nrecords; r++) {
+            var elev = (r % 97 == 0) ? "" : String.format("%.3f", 100.0 * Math.sin(r / 100.0));
+            var day = 20200101 + (r % 28);
+            var record = String.format(" %10d%12s%-20s%8d", r + 1, elev, "contour_" + (r % 1000), day);
+            dbf.write(record.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        dbf.write(0x1A);
+        dbf.close();
+        return sizeHeader + (long) nrecords * sizeRecord + 1;
+    }
+
+    public static void main(String[] args) throws Exception {
+        FilePath.checkDirectory("tmp", true);
+        var size = writePolylines("tmp/synthetic.shp", 1000, 100);
+        System.out.println("Bytes written: " + size);
+        System.out.println("*** ALL DONE ***");
+    }
+}
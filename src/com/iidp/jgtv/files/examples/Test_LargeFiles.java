@@ -0,0 +1,176 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.examples;
+
+import com.iidp.jgtv.files.DbfFile;
+import com.iidp.jgtv.files.ShpFile;
+import com.iidp.jgtv.files.ShxFile;
+import com.iidp.jgtv.files.shp.ReadOptions;
+import com.iidp.jgtv.others.BoundingBox;
+import com.iidp.jgtv.others.FilePath;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.BitSet;
+
+/**
+ * Checks that files beyond the limits of 32-bit offsets are read correctly:
+ *  - a .shp file larger than 2 GB, whose last records are beyond the first mapped region, and
+ *  - a .dbf file with records wider than 32 KB and text fields longer than 255 characters.
+ *
+ * Usage: Test_LargeFiles [size of .shp file in MB, default 2300]
+ * Files are written to tmp/ and deleted at the end. Run with assertions enabled (-ea).
+ */
+public class Test_LargeFiles {
+    private static final int NPOINTS = 100;
+
+    /** Checks the .shx index: offsets of the last records do not fit in an int */
+    private static void testIndex(String src, int nrecords, long recordBytes) throws Exception {
+        var shx = ShxFile.read(FilePath.replaceExtension(src, "shx"));
+        assert shx.getNRecords() == nrecords : "Wrong number of records: " + shx.getNRecords();
+        var last = shx.getOffset(nrecords - 1);
+        assert last == 100 + (nrecords - 1) * recordBytes : "Wrong offset: " + last;
+        if (last <= Integer.MAX_VALUE) System.out.println("WARNING: offsets fit in an int, file is too small to test large files");
+        System.out.println("OK index, last offset: " + last);
+    }
+
+    /** Checks that streaming visits every record in order */
+    private static void testStream(String src, int nrecords) throws Exception {
+        var count = new long[2];
+        ShpFile.stream(src, r -> {
+            assert r.getId() == count[0] + 1 : "Wrong record number: " + r.getId();
+            count[0] += 1;
+            count[1] += r.getNPoints();
+        });
+        assert count[0] == nrecords : "Wrong number of records: " + count[0];
+        assert count[1] == (long) nrecords * NPOINTS : "Wrong number of points: " + count[1];
+        System.out.println("OK stream: " + count[0] + " records");
+    }
+
+    /** Checks random access to records after the first 2 GB */
+    private static void testRandomAccess(String src, int nrecords) throws Exception {
+        var shp = ShpFile.open(src);
+        assert shp.getNRecords() == nrecords;
+        for (int r: new int[] {0, nrecords / 2, nrecords - 1}) {
+            var s = shp.readRecord(r);
+            var bbox = s.getBoundingBox();
+            var cx = (r * 37) % 1000;
+            var cy = (r * 91) % 1000;
+            var radius = 1.0 + r % 10;
+            assert s.getIDX() == r + 1 : "Wrong record: " + s.getIDX();
+            assert s.getNPoints() == NPOINTS;
+            assert bbox.getXMin() == cx - radius && bbox.getYMax() == cy + radius : "Wrong bounding box: " + bbox;
+        }
+        System.out.println("OK random access");
+    }
+
+    /** Checks that selected records are found using the index or by scanning */
+    private static void testSelection(String src, int nrecords) throws Exception {
+        var rows = new BitSet();
+        rows.set(nrecords - 3, nrecords);
+        var shp = ShpFile.readColumnar(src, new ReadOptions().records(rows), false);
+        var ids = shp.getRecordIds();
+        assert ids.length == 3 && ids[2] == nrecords : "Wrong selection";
+
+        // Circles are centered on (r * 37 % 1000, r * 91 % 1000), so only a few records are inside
+        var window = BoundingBox.parse("500,500,500.5,500.5");
+        shp = ShpFile.readColumnar(src, new ReadOptions().window(window), false);
+        var expected = 0;
+        for (int r = 0; r < nrecords; r++) {
+            var cx = (r * 37) % 1000;
+            var cy = (r * 91) % 1000;
+            var radius = 1.0 + r % 10;
+            if (window.intersects(cx - radius, cy - radius, cx + radius, cy + radius)) expected += 1;
+        }
+        assert shp.getRecordIds().length == expected : "Wrong number of records in window: " + shp.getRecordIds().length;
+        System.out.println("OK selection: " + expected + " records in window");
+    }
+
+    /**
+     * Writes a .dbf file with many wide text fields, so the size of each record does not fit
+     * in a signed 16-bit value, and the length of each field does not fit in one byte.
+     */
+    private static void writeWideDbf(String path, int nrecords, int nfields, int width) throws Exception {
+        var recordSize = 1 + nfields * width;
+        var headerSize = 32 + 32 * nfields + 1;
+        var le = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+        try (var o = new BufferedOutputStream(new FileOutputStream(path))) {
+            le.put((byte) 3).put((byte) 120).put((byte) 1).put((byte) 1);
+            le.putInt(nrecords).putShort((short) headerSize).putShort((short) recordSize);
+            o.write(le.array());
+            for (int f = 0; f < nfields; f++) {
+                var d = new byte[32];
+                var name = String.format("F%d", f).getBytes();
+                System.arraycopy(name, 0, d, 0, name.length);
+                d[11] = 'C';
+                d[16] = (byte) (width & 0xFF);
+                d[17] = (byte) (width >> 8);
+                o.write(d);
+            }
+            o.write(0x0D);
+            for (int r = 0; r < nrecords; r++) {
+                o.write(' ');
+                for (int f = 0; f < nfields; f++) {
+                    var value = String.format("%-" + width + "s", "R" + r + "F" + f).getBytes();
+                    o.write(value);
+                }
+            }
+        }
+    }
+
+    private static void testWideDbf(String path) throws Exception {
+        var nrecords = 3;
+        var nfields = 100;
+        var width = 400;
+        writeWideDbf(path, nrecords, nfields, width);
+
+        var dbf = DbfFile.read(path);
+        assert dbf.getNRecords() == nrecords;
+        assert dbf.getNFields() == nfields : "Wrong number of fields: " + dbf.getNFields();
+        assert dbf.getFields().get(0).flength == width : "Wrong field length: " + dbf.getFields().get(0);
+        var last = dbf.getFieldsAsLists().get(nfields - 1);
+        assert last.values.get(nrecords - 1).equals("R" + (nrecords - 1) + "F" + (nfields - 1)) : "Wrong value: " + last.values.get(nrecords - 1);
+        System.out.println("OK wide .dbf: records of " + (1 + nfields * width) + " bytes");
+    }
+
+    public static void main(String[] args) throws Exception {
+        var mb = (args.length > 0) ? Long.parseLong(args[0]) : 2300;
+        var recordBytes = 8 + 4 + 32 + 4 + 4 + 4 + 16L * NPOINTS;
+        var nrecords = (int) (mb * 1024 * 1024 / recordBytes);
+
+        FilePath.checkDirectory("tmp", true);
+        var src = "tmp/test_large.shp";
+        System.out.printf("Writing %d records (%d MB) to %s\n", nrecords, mb, src);
+        SyntheticShp.writePolylines(src, nrecords, NPOINTS);
+
+        try {
+            testIndex(src, nrecords, recordBytes);
+            testStream(src, nrecords);
+            testRandomAccess(src, nrecords);
+            testSelection(src, nrecords);
+            testWideDbf("tmp/test_wide.dbf");
+        } finally {
+            new File(src).delete();
+            new File(FilePath.replaceExtension(src, "shx")).delete();
+            new File("tmp/test_wide.dbf").delete();
+        }
+        System.out.println("*** ALL DONE ***");
+    }
+}
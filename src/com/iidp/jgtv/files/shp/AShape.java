@@ -22,6 +22,8 @@ import com.iidp.jgtv.others.Range;
 
 import java.io.DataInputStream;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -36,6 +38,9 @@ public abstract class AShape {
     public static void setDefaultZValue(double value) {
         DEFAULT_ZVALUE = value;
     }
+    public static double getDefaultZValue() {
+        return DEFAULT_ZVALUE;
+    }
 
     /** Shape type */
     public final SHP_TYPE type;
@@ -61,6 +66,8 @@ public abstract class AShape {
     public int getNParts() { return nparts; }
     /** Bounding box */
     protected BoundingBox bbox;
+    /** Returns bounding box of this shape, or null for points and null shapes */
+    public BoundingBox getBoundingBox() { return bbox; }
     /** Range for M variable */
     protected Range rangeM;
     /** Array with M values */
@@ -103,6 +110,32 @@ public abstract class AShape {
         return this;
     }
 
+    /**
+     * Reads header of record from a buffer (e.g. a memory mapped .shp file).
+     * The record number and length are stored as big endian, while the shape
+     * type is stored as little endian. The buffer is left in little endian order.
+     *
+     * @param b buffer positioned at the beginning of the record
+     * @return an AShape that stores read information
+     * @throws Exception
+     */
+    protected AShape readHeader(ByteBuffer b) throws Exception {
+        b.order(ByteOrder.BIG_ENDIAN);
+        //0-3 	int32 	big 	Record number (1-based)
+        var pos = b.getInt();
+        // 4-7 	int32 	big 	Record length (in 16-bit words)
+        var content_size = b.getInt() * 2;
+
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        var shape_type = b.getInt(); // 4
+        assert shape_type == this.type.value;
+
+        this.idx = pos;
+        this.size = content_size + 8;
+
+        return this;
+    }
+
     /**
      * Reads list of parts in the record.
      * Note: nparts should have been set before
@@ -112,9 +145,24 @@ public abstract class AShape {
      * @throws Exception
      */
     protected AShape readParts(DataInputStream b) throws Exception {
+        var pp = new int[this.nparts];
+        LittleEndian.readInts(b, pp, 0, this.nparts);
+        for (int i = 0; i < this.nparts; i++) {
+            this.parts.add(pp[i]);
+        }
+        return this;
+    }
+
+    /**
+     * Reads list of parts in the record from a little endian buffer.
+     * Note: nparts should have been set before
+     *
+     * @param b buffer
+     * @return a AShape that stores the read information
+     */
+    protected AShape readParts(ByteBuffer b) {
         for (int i = 0; i < this.nparts; i++) {
-            var pp = LittleEndian.readInt(b);
-            this.parts.add(pp);
+            this.parts.add(b.getInt());
         }
         return this;
     }
@@ -128,16 +176,33 @@ public abstract class AShape {
      * @throws Exception
      */
     protected AShape readXY(DataInputStream b) throws Exception {
+        // Points are stored as pairs (x, y)
+        var xy = new double[2 * this.npoints];
+        LittleEndian.readDoubles(b, xy, 0, xy.length);
         for (int i = 0; i < this.npoints; i++) {
-            var xx = LittleEndian.readDouble(b);
-            var yy = LittleEndian.readDouble(b);
-            x.add(xx);
-            y.add(yy);
+            x.add(xy[2 * i]);
+            y.add(xy[2 * i + 1]);
             z.add(DEFAULT_ZVALUE); // this can make easier to export to VTK
         }
         return this;
     }
 
+    /**
+     * Reads list of  coordinates (x,y) for points in a record from a little endian buffer.
+     * Note: npoints should have been set before
+     *
+     * @param b buffer
+     * @return a AShape that stores the read information
+     */
+    protected AShape readXY(ByteBuffer b) {
+        for (int i = 0; i < this.npoints; i++) {
+            x.add(b.getDouble());
+            y.add(b.getDouble());
+            z.add(DEFAULT_ZVALUE);
+        }
+        return this;
+    }
+
     /**
      * Reads list of  coordinates z coordinate for points in a record.
      * Note: npoints should have been set before
@@ -148,9 +213,25 @@ public abstract class AShape {
      * @throws Exception
      */
     protected AShape readZ(DataInputStream b) throws Exception {
+        // readXY has already filled z with the default value
+        var zz = new double[this.npoints];
+        LittleEndian.readDoubles(b, zz, 0, this.npoints);
+        for (int i = 0; i < this.npoints; i++) {
+            z.set(i, zz[i]);
+        }
+        return this;
+    }
+
+    /**
+     * Reads list of z coordinates for points in a record from a little endian buffer.
+     * Note: npoints should have been set before
+     *
+     * @param b buffer
+     * @return a AShape that stores the read information
+     */
+    protected AShape readZ(ByteBuffer b) {
         for (int i = 0; i < this.npoints; i++) {
-            var zz = LittleEndian.readDouble(b);
-            z.add(zz);
+            z.set(i, b.getDouble());
         }
         return this;
     }
@@ -170,13 +251,95 @@ public abstract class AShape {
 
         this.rangeM = new Range(mmin, mmax);
 
+        var mm = new double[this.npoints];
+        LittleEndian.readDoubles(b, mm, 0, this.npoints);
+        for (int i = 0; i < this.npoints; i++) {
+            m.add(mm[i]);
+        }
+        return this;
+    }
+
+    /**
+     * Reads range and list of M values for points in a record from a little endian buffer.
+     * Note: npoints should have been set before
+     *
+     * @param b buffer
+     * @return a AShape that stores the read information
+     */
+    protected AShape readM(ByteBuffer b) {
+        var mmin = b.getDouble();
+        var mmax = b.getDouble();
+
+        this.rangeM = new Range(mmin, mmax);
+
         for (int i = 0; i < this.npoints; i++) {
-            var mm = LittleEndian.readDouble(b);
-            m.add(mm);
+            m.add(b.getDouble());
         }
         return this;
     }
 
+    /**
+     * Skips the range and list of z coordinates of a record without decoding them.
+     * z keeps the default value set by readXY.
+     *
+     * @param b buffer
+     * @return a AShape
+     */
+    protected AShape skipZ(ByteBuffer b) {
+        b.position(b.position() + 16 + 8 * this.npoints);
+        return this;
+    }
+
+    /**
+     * Makes sure that parts and coordinates of this shape are available.
+     * Shapes are read completely by default, so there is nothing to do here,
+     * but derived classes can delay reading them until they are needed (see LazyShape).
+     */
+    protected void load() {
+    }
+
+    /**
+     * Reads a record of a given type from a buffer.
+     *
+     * @param type type of shapes stored in the file
+     * @param b buffer positioned at the beginning of the record
+     * @return the shape stored in the record
+     * @throws Exception
+     */
+    public static AShape read(SHP_TYPE type, ByteBuffer b) throws Exception {
+        return read(type, b, true, true);
+    }
+
+    /**
+     * Reads a record of a given type from a buffer, decoding only some dimensions.
+     * Blocks of coordinates that are not needed are skipped.
+     *
+     * @param type type of shapes stored in the file
+     * @param b buffer positioned at the beginning of the record
+     * @param readZ if false, z coordinates are not read and keep the default value
+     * @param readM if false, M values are not read
+     * @return the shape stored in the record
+     * @throws Exception
+     */
+    public static AShape read(SHP_TYPE type, ByteBuffer b, boolean readZ, boolean readM) throws Exception {
+        if (type == SHP_TYPE.NULL) {
+            return Null.read(b);
+        } else if (type == SHP_TYPE.POINT) {
+            return Point.read(b);
+        } else if (type == SHP_TYPE.MULTIPOINT) {
+            return Multipoint.read(b);
+        } else if (type == SHP_TYPE.POLYLINE) {
+            return Polyline.read(b);
+        } else if (type == SHP_TYPE.POLYGON) {
+            return Polygon.read(b);
+        } else if (type == SHP_TYPE.POLYGONZ) {
+            return PolygonZ.read(b, readZ, readM);
+        } else {
+            assert false : "Unknown file type: " + type;
+            return null;
+        }
+    }
+
     /**
      * @return the type associated to this shape
      */
@@ -195,6 +358,7 @@ public abstract class AShape {
      * Prints summary of this shape to stream.
      */
     public void display(PrintStream out) {
+        load();
         out.println("====================================");
         out.println(type);
         if (bbox != null) out.println("BoundingBox: " + bbox);
@@ -236,6 +400,7 @@ public abstract class AShape {
      * @return list with appended points.
      */
     public List<Double> addX(List<Double> lx) {
+        load();
         for (int i = 0; i < x.size(); i++) {
             lx.add(x.get(i));
         }
@@ -249,6 +414,7 @@ public abstract class AShape {
      * @return list with appended points.
      */
     public List<Double> addY(List<Double> ly) {
+        load();
         for (int i = 0; i < y.size(); i++) {
             ly.add(y.get(i));
         }
@@ -262,9 +428,20 @@ public abstract class AShape {
      * @return list with appended points.
      */
     public List<Double> addZ(List<Double> lz) {
+        load();
         for (int i = 0; i < z.size(); i++) {
             lz.add(z.get(i));
         }
         return lz;
     }
+
+    /**
+     * Appends points and parts of this shape to a columnar container.
+     *
+     * @param g container where this shape should be added.
+     */
+    void addTo(ShpGeometry g) {
+        load();
+        g.addShape(idx, x, y, z, m, parts);
+    }
 }
@@ -0,0 +1,155 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.shp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decodes blocks of coordinates from a buffer (e.g. a memory mapped .shp file) and computes
+ * their range in the same pass.
+ *
+ * Coordinates are stored as little endian doubles, with x and y interleaved. Instead of
+ * calling getDouble for each value, a block of values is copied with a single call through
+ * a DoubleBuffer view, which is a plain memory copy on little endian hosts (and a bulk byte
+ * swap on others). The block is then split into x and y arrays by a simple loop that also
+ * updates their minimum and maximum values, which the JIT compiler can vectorize.
+ *
+ * Each decoder has its own scratch array, so it should only be used by one thread.
+ */
+public class CoordinateDecoder {
+    /** Number of values copied at once. Larger records are decoded in several blocks. */
+    private static final int BLOCK_SIZE = 4096;
+    /** Records with less points are decoded one value at a time, which is faster for them */
+    private static final int MIN_BULK_POINTS = 8;
+
+    private final double[] scratch = new double[BLOCK_SIZE];
+
+    /** Sets a range to empty, so any value updates it. Ranges are stored as (min0, min1, ..., max0, max1, ...) */
+    public static void reset(double[] range) {
+        var n = range.length / 2;
+        for (int i = 0; i < n; i++) {
+            range[i] = Double.POSITIVE_INFINITY;
+            range[n + i] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Reads n (x, y) pairs and updates their range.
+     *
+     * @param b buffer positioned at the first x value. At return, it is positioned after the last y value.
+     * @param n number of points
+     * @param x array where x values are stored
+     * @param y array where y values are stored
+     * @param off position in x and y of the first point
+     * @param range (xmin, ymin, xmax, ymax), updated with the range of the points
+     */
+    public void readXY(ByteBuffer b, int n, double[] x, double[] y, int off, double[] range) {
+        if (n < MIN_BULK_POINTS) {
+            readXYScalar(b, n, x, y, off, range);
+            return;
+        }
+
+        var xmin = range[0];
+        var ymin = range[1];
+        var xmax = range[2];
+        var ymax = range[3];
+        var view = b.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        var remain = n;
+        while (remain > 0) {
+            var count = Math.min(remain, BLOCK_SIZE / 2);
+            view.get(scratch, 0, 2 * count);
+            for (int i = 0; i < count; i++) {
+                var vx = scratch[2 * i];
+                var vy = scratch[2 * i + 1];
+                x[off + i] = vx;
+                y[off + i] = vy;
+                xmin = Math.min(xmin, vx);
+                xmax = Math.max(xmax, vx);
+                ymin = Math.min(ymin, vy);
+                ymax = Math.max(ymax, vy);
+            }
+            off += count;
+            remain -= count;
+        }
+        b.position(b.position() + 16 * n);
+
+        range[0] = xmin;
+        range[1] = ymin;
+        range[2] = xmax;
+        range[3] = ymax;
+    }
+
+    /**
+     * Reads n values (e.g. z coordinates) and updates their range.
+     *
+     * @param b buffer positioned at the first value. At return, it is positioned after the last one.
+     * @param n number of values
+     * @param dst array where values are stored
+     * @param off position in dst of the first value
+     * @param range (min, max), updated with the range of the values
+     */
+    public void readValues(ByteBuffer b, int n, double[] dst, int off, double[] range) {
+        if (n < MIN_BULK_POINTS) {
+            readValuesScalar(b, n, dst, off, range);
+            return;
+        }
+
+        // Values are copied straight into dst, and then scanned while they are still in cache
+        var min = range[0];
+        var max = range[1];
+        var view = b.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        view.get(dst, off, n);
+        for (int i = off; i < off + n; i++) {
+            min = Math.min(min, dst[i]);
+            max = Math.max(max, dst[i]);
+        }
+        b.position(b.position() + 8 * n);
+
+        range[0] = min;
+        range[1] = max;
+    }
+
+    /**
+     * Same as readXY, but decodes one value at a time. It is used for small records,
+     * and as a reference to test and benchmark readXY.
+     */
+    public static void readXYScalar(ByteBuffer b, int n, double[] x, double[] y, int off, double[] range) {
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = off; i < off + n; i++) {
+            var vx = b.getDouble();
+            var vy = b.getDouble();
+            x[i] = vx;
+            y[i] = vy;
+            range[0] = Math.min(range[0], vx);
+            range[1] = Math.min(range[1], vy);
+            range[2] = Math.max(range[2], vx);
+            range[3] = Math.max(range[3], vy);
+        }
+    }
+
+    /** Same as readValues, but decodes one value at a time. */
+    public static void readValuesScalar(ByteBuffer b, int n, double[] dst, int off, double[] range) {
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = off; i < off + n; i++) {
+            var v = b.getDouble();
+            dst[i] = v;
+            range[0] = Math.min(range[0], v);
+            range[1] = Math.max(range[1], v);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.shp;
+
+import com.iidp.jgtv.others.BoundingBox;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Shape that only reads its header when it is created: position, type, bounding box
+ * and number of parts and points. Parts and coordinates are read from the mapped
+ * file the first time they are needed, e.g. when calling addX or display.
+ *
+ * It makes the first scan of a large file almost free when most records are never
+ * used, e.g. to count records or to select them by bounding box.
+ */
+public class LazyShape extends AShape {
+    /** Mapped content of the file. It is released once the shape is loaded */
+    private ByteBuffer source;
+    /** Position of the record in the source buffer in bytes */
+    public final int offset;
+
+    private LazyShape(SHP_TYPE _type, ByteBuffer _source, int _offset) {
+        super(_type);
+        source = _source;
+        offset = _offset;
+    }
+
+    /** @return true if parts and coordinates have already been read */
+    public boolean isLoaded() {
+        return source == null;
+    }
+
+    /**
+     * Reads the header of a record and moves the buffer to the beginning of the next one.
+     *
+     * @param type type of shapes stored in the file
+     * @param b buffer positioned at the beginning of the record
+     * @return a shape whose parts and coordinates have not been read yet
+     * @throws Exception
+     */
+    public static LazyShape scan(SHP_TYPE type, ByteBuffer b) throws Exception {
+        var start = b.position();
+        var p = new LazyShape(type, b, start);
+        p.readHeader(b);
+
+        if (type == SHP_TYPE.NULL) {
+            p.nparts = 0;
+            p.npoints = 0;
+        } else if (type == SHP_TYPE.POINT) {
+            p.nparts = 1;
+            p.npoints = 1;
+        } else if (type == SHP_TYPE.MULTIPOINT) {
+            p.bbox = BoundingBox.read(b);
+            p.nparts = 1;
+            p.npoints = b.getInt();
+        } else {
+            p.bbox = BoundingBox.read(b);
+            p.nparts = b.getInt();
+            p.npoints = b.getInt();
+        }
+
+        b.position(start + p.size);
+        return p;
+    }
+
+    @Override
+    protected void load() {
+        if (source == null) return;
+
+        var b = source.duplicate();
+        b.position(offset);
+        try {
+            var full = AShape.read(type, b);
+            x = full.x;
+            y = full.y;
+            z = full.z;
+            m = full.m;
+            parts = full.parts;
+            rangeM = full.rangeM;
+            bbox = full.bbox;
+        } catch (Exception e) {
+            throw new RuntimeException("Cannot read record at offset: " + offset, e);
+        }
+        source = null;
+    }
+}
@@ -21,6 +21,7 @@ import com.iidp.jgtv.others.BoundingBox;
 import com.iidp.jgtv.others.LittleEndian;
 
 import java.io.DataInputStream;
+import java.nio.ByteBuffer;
 
 /**
  * TODO: Check shape file example for this. It only contains one point per record.
@@ -40,7 +41,22 @@ public class Multipoint extends AShape {
         p.nparts = 1;
         p.npoints = LittleEndian.readInt(b);
 
-        p.parts.add(1);
+        p.parts.add(0);
+        p.readXY(b);
+
+        return p;
+    }
+
+    public static Multipoint read(ByteBuffer b) throws Exception {
+        var p = new Multipoint();
+        p.readHeader(b);
+
+        p.bbox = BoundingBox.read(b);
+
+        p.nparts = 1;
+        p.npoints = b.getInt();
+
+        p.parts.add(0);
         p.readXY(b);
 
         return p;
@@ -17,6 +17,7 @@
 package com.iidp.jgtv.files.shp;
 
 import java.io.DataInputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Represents a null value.
@@ -38,4 +39,16 @@ public class Null extends AShape {
 
         return p;
     }
+
+    public static Null read(ByteBuffer b) throws Exception {
+        var p = new Null();
+        p.readHeader(b);
+        assert (p.size - 8 == 4);
+
+        p.bbox = null;
+        p.npoints = 0;
+        p.nparts = 0;
+
+        return p;
+    }
 }
@@ -0,0 +1,220 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.shp;
+
+import com.iidp.jgtv.others.MappedColumn;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Stores the geometry of all shapes in a .shp file in the same layout as ShpGeometry,
+ * but outside of the heap, in temporary files mapped into memory (see MappedColumn).
+ *
+ * It is used to convert files whose geometry does not fit in the heap. Only a few
+ * bytes per shape are kept in the heap, and the operating system moves the pages of
+ * the columns between memory and disk as needed. Positions of points and parts are
+ * stored as long values, so the number of points is not limited to 2^31.
+ *
+ * Temporary files are deleted by close.
+ */
+public class OffHeapGeometry implements AutoCloseable {
+    /** Shape type of the file */
+    public final SHP_TYPE type;
+    /** Coordinates of all points */
+    private final MappedColumn x, y, z;
+    /** M values, only stored for files that contain them */
+    private final MappedColumn m;
+    /** Position of first point of each shape (nshapes + 1 values) */
+    private final MappedColumn shapeOffsets;
+    /** Position in parts of first part of each shape (nshapes + 1 values) */
+    private final MappedColumn partOffsets;
+    /** Position of first point of each part */
+    private final MappedColumn parts;
+    /** Record number of each shape (1-based) */
+    private final MappedColumn ids;
+    /** If false, z coordinates are not read from records and keep the default value */
+    private final boolean readZ;
+
+    /**
+     * Creates an empty container.
+     *
+     * @param _type shape type of the file
+     * @param dir directory for the temporary files, or null to use the default temporary directory
+     * @param _readZ if false, z coordinates are skipped and set to the default value
+     * @param readM if false, M values are skipped and not stored
+     * @throws IOException if temporary files can not be created
+     */
+    public OffHeapGeometry(SHP_TYPE _type, String dir, boolean _readZ, boolean readM) throws IOException {
+        type = _type;
+        readZ = _readZ;
+        x = new MappedColumn(dir, "jgtv_x");
+        y = new MappedColumn(dir, "jgtv_y");
+        z = new MappedColumn(dir, "jgtv_z");
+        m = (readM && hasM(type)) ? new MappedColumn(dir, "jgtv_m") : null;
+        shapeOffsets = new MappedColumn(dir, "jgtv_shapes");
+        partOffsets = new MappedColumn(dir, "jgtv_partoffsets");
+        parts = new MappedColumn(dir, "jgtv_parts");
+        ids = new MappedColumn(dir, "jgtv_ids");
+        shapeOffsets.addLong(0);
+        partOffsets.addLong(0);
+    }
+
+    private static boolean hasM(SHP_TYPE t) {
+        return t == SHP_TYPE.POLYGONZ || t == SHP_TYPE.POLYLINEZ || t == SHP_TYPE.MULTIPOINTZ || t == SHP_TYPE.POINTZ ||
+               t == SHP_TYPE.POLYGONM || t == SHP_TYPE.POLYLINEM || t == SHP_TYPE.MULTIPOINTM || t == SHP_TYPE.POINTM;
+    }
+
+    public long getNShapes() { return ids.size(); }
+    public long getNPoints() { return x.size(); }
+    public long getNParts() { return parts.size(); }
+
+    public double getX(long i) { return x.getDouble(i); }
+    public double getY(long i) { return y.getDouble(i); }
+    public double getZ(long i) { return z.getDouble(i); }
+    /** Returns M value of a point. The file should include M values and they should have been read. */
+    public double getM(long i) { return m.getDouble(i); }
+    public boolean hasM() { return m != null; }
+    /** Returns position of first point of shape i. Shape i ends at getShapeOffset(i + 1). */
+    public long getShapeOffset(long i) { return shapeOffsets.getLong(i); }
+    /** Returns position of first part of shape i. Shape i ends at getPartOffset(i + 1). */
+    public long getPartOffset(long i) { return partOffsets.getLong(i); }
+    /** Returns position of first point of part j. */
+    public long getPart(long j) { return parts.getLong(j); }
+    /** Returns record number of shape i. */
+    public int getId(long i) { return (int) ids.getLong(i); }
+
+    /**
+     * @return an array with the record number of all shapes. Only one int per shape is stored in the heap.
+     */
+    public int[] getIds() {
+        assert getNShapes() <= Integer.MAX_VALUE : "Too many shapes";
+        var a = new int[(int) getNShapes()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = getId(i);
+        }
+        return a;
+    }
+
+    /** Closes the current shape. Points and parts added since the previous call belong to it. */
+    private void endShape(int id) throws IOException {
+        ids.addLong(id);
+        shapeOffsets.addLong(x.size());
+        partOffsets.addLong(parts.size());
+    }
+
+    /**
+     * Reads a single record from a buffer (e.g. a memory mapped .shp file)
+     * and appends it to this container (see ShpGeometry.readRecord).
+     *
+     * @param b buffer positioned at the beginning of the record. At return, it is
+     *          positioned at the beginning of the next record.
+     */
+    public void readRecord(ByteBuffer b) throws IOException {
+        var start = b.position();
+
+        b.order(ByteOrder.BIG_ENDIAN);
+        var id = b.getInt();
+        var size = b.getInt() * 2 + 8;
+        b.order(ByteOrder.LITTLE_ENDIAN);
+
+        var shapeType = SHP_TYPE.getShpType(b.getInt());
+        if (shapeType == SHP_TYPE.NULL) {
+            // Null shapes have no points but keep their place, so attributes stay aligned
+
+        } else if (shapeType == SHP_TYPE.POINT) {
+            parts.addLong(x.size());
+            readXY(b, 1);
+
+        } else if (shapeType == SHP_TYPE.MULTIPOINT) {
+            b.position(b.position() + 32); // bounding box
+            var n = b.getInt();
+            parts.addLong(x.size());
+            readXY(b, n);
+
+        } else if (shapeType == SHP_TYPE.POLYLINE || shapeType == SHP_TYPE.POLYGON || shapeType == SHP_TYPE.POLYGONZ) {
+            b.position(b.position() + 32); // bounding box
+            var np = b.getInt();
+            var n = b.getInt();
+            var first = x.size();
+            for (int i = 0; i < np; i++) {
+                parts.addLong(first + b.getInt());
+            }
+            readXY(b, n);
+
+            if (shapeType == SHP_TYPE.POLYGONZ) {
+                b.position(b.position() + 16); // z range
+                if (readZ) {
+                    for (int i = 0; i < n; i++) {
+                        z.setDouble(first + i, b.getDouble());
+                    }
+                } else {
+                    b.position(b.position() + 8 * n);
+                }
+                // M values are optional in Z records
+                if (m != null && b.position() - start < size) {
+                    b.position(b.position() + 16); // m range
+                    for (int i = 0; i < n; i++) {
+                        m.setDouble(first + i, b.getDouble());
+                    }
+                }
+            }
+        } else {
+            assert false : "Unknown shape type: " + shapeType;
+        }
+
+        endShape(id);
+        b.position(start + size);
+    }
+
+    private void readXY(ByteBuffer b, int n) throws IOException {
+        var zvalue = AShape.getDefaultZValue();
+        for (int i = 0; i < n; i++) {
+            x.addDouble(b.getDouble());
+            y.addDouble(b.getDouble());
+            z.addDouble(zvalue);
+            if (m != null) m.addDouble(Double.NaN);
+        }
+    }
+
+    /** Deletes the temporary files. The geometry should not be used after this call. */
+    @Override
+    public void close() throws IOException {
+        x.close();
+        y.close();
+        z.close();
+        if (m != null) m.close();
+        shapeOffsets.close();
+        partOffsets.close();
+        parts.close();
+        ids.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%d shapes, %d parts, %d points, off-heap]", type, getNShapes(), getNParts(), getNPoints());
+    }
+
+    /**
+     * Prints summary of this container to stream.
+     */
+    public void display(PrintStream out) {
+        out.println(this);
+    }
+}
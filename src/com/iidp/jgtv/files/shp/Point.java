@@ -19,6 +19,7 @@ package com.iidp.jgtv.files.shp;
 import com.iidp.jgtv.files.ShpFile;
 
 import java.io.DataInputStream;
+import java.nio.ByteBuffer;
 
 public class Point extends AShape {
 
@@ -41,6 +42,21 @@ public class Point extends AShape {
         return p;
     }
 
+    public static Point read(ByteBuffer b) throws Exception {
+        var p = new Point();
+        p.readHeader(b);
+
+        p.bbox = null;
+
+        p.npoints = 1;
+        p.nparts = 1;
+
+        p.parts.add(0);
+        p.readXY(b);
+
+        return p;
+    }
+
     public static void main(String[] args) throws Exception {
         var src = "examples/ex1/points.shp";
         var shp = ShpFile.read(src);
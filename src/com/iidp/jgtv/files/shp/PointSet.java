@@ -0,0 +1,192 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.shp;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Stores all points of a POINT, POINTZ or POINTM file as arrays of primitives.
+ *
+ * Each record of these files is a single point, so records are decoded directly
+ * from the buffer into the arrays, without creating any object per record.
+ * Null records are stored as points with NaN coordinates, so there is a point
+ * for each record and attributes stay aligned with them (see isNull).
+ *
+ * Arrays are allocated with the expected number of points and are shrunk once by
+ * trim, after the last record is read, so they are not copied if the estimate was exact.
+ */
+public class PointSet {
+    /** Shape type of the file */
+    public final SHP_TYPE type;
+    /** Number of points */
+    private int npoints;
+    /** Coordinates of all points */
+    private double[] x, y;
+    /** z coordinates, only stored for POINTZ files if they are read. Otherwise, all points have zvalue */
+    private double[] z;
+    private final double zvalue = AShape.getDefaultZValue();
+    /** M values, only stored for files that contain them */
+    private double[] m;
+    /** Record number of each point (1-based) */
+    private int[] ids;
+
+    /**
+     * Creates an empty container.
+     *
+     * @param _type shape type of the file, which should be a point type (see isPointType)
+     * @param capacity expected number of points. Arrays grow if more points are added.
+     * @param readZ if false, z coordinates are skipped and set to the default value
+     * @param readM if false, M values are skipped and not stored
+     */
+    public PointSet(SHP_TYPE _type, int capacity, boolean readZ, boolean readM) {
+        assert isPointType(_type) : "Not a point type: " + _type;
+        type = _type;
+        capacity = Math.max(capacity, 16);
+        x = new double[capacity];
+        y = new double[capacity];
+        z = (readZ && type == SHP_TYPE.POINTZ) ? new double[capacity] : null;
+        m = (readM && type != SHP_TYPE.POINT) ? new double[capacity] : null;
+        ids = new int[capacity];
+    }
+
+    /**
+     * Creates an empty container with a capacity estimated from the size of the .shp file.
+     *
+     * @param _type shape type of the file
+     * @param length length of the file in bytes
+     * @param readZ if false, z coordinates are skipped
+     * @param readM if false, M values are skipped
+     * @return an empty container
+     */
+    public static PointSet forFile(SHP_TYPE _type, long length, boolean readZ, boolean readM) {
+        // Records are 8 bytes header + 4 bytes type + 16 bytes (x, y), plus z and m (optional in POINTZ) values
+        var size = (_type == SHP_TYPE.POINT) ? 28 : 36;
+        var capacity = (length - 100) / size;
+        return new PointSet(_type, (int) Math.min(capacity, Integer.MAX_VALUE - 8), readZ, readM);
+    }
+
+    /** @return true if each record of files of this type is a single point */
+    public static boolean isPointType(SHP_TYPE t) {
+        return t == SHP_TYPE.POINT || t == SHP_TYPE.POINTZ || t == SHP_TYPE.POINTM;
+    }
+
+    public int getNPoints() { return npoints; }
+    /** @return true if point i is the placeholder of a null record */
+    public boolean isNull(int i) { return Double.isNaN(x[i]); }
+
+    /** Returns x coordinates of all points. The array should not be modified. */
+    public double[] getX() { return x; }
+    /** Returns y coordinates of all points. The array should not be modified. */
+    public double[] getY() { return y; }
+    /**
+     * Returns z coordinates of all points. The array should not be modified.
+     * If z coordinates were not stored, a new array filled with the default value is returned.
+     */
+    public double[] getZ() {
+        if (z != null) return z;
+        var zz = new double[x.length];
+        Arrays.fill(zz, zvalue);
+        return zz;
+    }
+    /** Returns M values of all points, or null if they were not read. */
+    public double[] getM() { return m; }
+    /** Returns record number of each point. */
+    public int[] getIds() { return ids; }
+
+    private void ensurePoints() {
+        if (npoints == x.length) {
+            var capacity = x.length + (x.length >> 1);
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            if (z != null) z = Arrays.copyOf(z, capacity);
+            if (m != null) m = Arrays.copyOf(m, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+        }
+    }
+
+    /**
+     * Shrinks arrays to the number of stored points. Readers call it once, after the last record,
+     * so getters return arrays with one value for each point. Arrays are only copied if
+     * the capacity given to the constructor was larger than the number of points.
+     */
+    public void trim() {
+        if (x.length != npoints) {
+            x = Arrays.copyOf(x, npoints);
+            y = Arrays.copyOf(y, npoints);
+            if (z != null) z = Arrays.copyOf(z, npoints);
+            if (m != null) m = Arrays.copyOf(m, npoints);
+            ids = Arrays.copyOf(ids, npoints);
+        }
+    }
+
+    /**
+     * Reads a single record from a buffer (e.g. a memory mapped .shp file)
+     * and appends its point to this container.
+     *
+     * @param b buffer positioned at the beginning of the record. At return, it is
+     *          positioned at the beginning of the next record.
+     */
+    public void readRecord(ByteBuffer b) {
+        var start = b.position();
+
+        b.order(ByteOrder.BIG_ENDIAN);
+        var id = b.getInt(start);
+        var size = b.getInt(start + 4) * 2 + 8;
+        b.order(ByteOrder.LITTLE_ENDIAN);
+
+        // Values are read at absolute positions, after the 4 bytes shape type
+        var shapeType = SHP_TYPE.getShpType(b.getInt(start + 8));
+        ensurePoints();
+        ids[npoints] = id;
+        if (shapeType == SHP_TYPE.NULL) {
+            // Null records keep their place, so attributes stay aligned
+            x[npoints] = Double.NaN;
+            y[npoints] = Double.NaN;
+            if (z != null) z[npoints] = Double.NaN;
+            if (m != null) m[npoints] = Double.NaN;
+        } else {
+            x[npoints] = b.getDouble(start + 12);
+            y[npoints] = b.getDouble(start + 20);
+            if (z != null) z[npoints] = (shapeType == SHP_TYPE.POINTZ) ? b.getDouble(start + 28) : zvalue;
+
+            if (shapeType == SHP_TYPE.POINTZ) {
+                // M value is optional in POINTZ records
+                if (m != null) m[npoints] = (size >= 44) ? b.getDouble(start + 36) : Double.NaN;
+            } else if (shapeType == SHP_TYPE.POINTM) {
+                if (m != null) m[npoints] = b.getDouble(start + 28);
+            }
+        }
+        npoints += 1;
+
+        b.position(start + size);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%d points]", type, npoints);
+    }
+
+    /**
+     * Prints summary of this container to stream.
+     */
+    public void display(PrintStream out) {
+        out.println(this);
+    }
+}
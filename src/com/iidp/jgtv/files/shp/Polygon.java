@@ -21,6 +21,7 @@ import com.iidp.jgtv.others.BoundingBox;
 import com.iidp.jgtv.others.LittleEndian;
 
 import java.io.DataInputStream;
+import java.nio.ByteBuffer;
 
 public class Polygon extends AShape {
 
@@ -66,6 +67,22 @@ public class Polygon extends AShape {
         // assert (shape_type == SHP_TYPE.POLYGON.value);
     }
 
+    public static Polygon read(ByteBuffer b) throws Exception {
+        var p = new Polygon();
+        p.readHeader(b);
+
+        // 4 doubles with bounding box
+        p.bbox = BoundingBox.read(b);
+
+        p.nparts  = b.getInt();
+        p.npoints = b.getInt();
+
+        p.readParts(b);
+        p.readXY(b);
+
+        return p;
+    }
+
     public static void main(String[] args) throws Exception {
         var src = "examples/ex1/polygons.shp";
         var shp = ShpFile.read(src);
@@ -21,6 +21,7 @@ import com.iidp.jgtv.others.BoundingBox;
 import com.iidp.jgtv.others.LittleEndian;
 
 import java.io.DataInputStream;
+import java.nio.ByteBuffer;
 
 public class PolygonZ extends AShape {
 
@@ -49,6 +50,47 @@ public class PolygonZ extends AShape {
         return p;
     }
 
+    public static PolygonZ read(ByteBuffer b) throws Exception {
+        return read(b, true, true);
+    }
+
+    /**
+     * Reads a record from a buffer, decoding only some dimensions.
+     *
+     * @param b buffer positioned at the beginning of the record
+     * @param readZ if false, z coordinates are skipped and keep the default value
+     * @param readM if false, M values are skipped
+     * @return the shape stored in the record
+     * @throws Exception
+     */
+    public static PolygonZ read(ByteBuffer b, boolean readZ, boolean readM) throws Exception {
+        var start = b.position();
+        var p = new PolygonZ();
+        p.readHeader(b);
+
+        p.bbox = BoundingBox.read(b);
+
+        p.nparts  = b.getInt();
+        p.npoints = b.getInt();
+
+        p.readParts(b);
+        p.readXY(b);
+
+        if (readZ) {
+            p.bbox = BoundingBox.readZ(b, p.bbox);
+            p.readZ(b);
+        } else {
+            p.skipZ(b);
+        }
+
+        // M values are optional in Z records
+        if (readM && b.position() - start < p.size) {
+            p.readM(b);
+        }
+
+        return p;
+    }
+
     public static void main(String[] args) throws Exception {
         var src = "examples/ex1/polygonz.shp";
         var shp = ShpFile.read(src);
@@ -21,6 +21,7 @@ import com.iidp.jgtv.others.BoundingBox;
 import com.iidp.jgtv.others.LittleEndian;
 
 import java.io.DataInputStream;
+import java.nio.ByteBuffer;
 
 public class Polyline extends AShape {
 
@@ -44,6 +45,20 @@ public class Polyline extends AShape {
         return p;
     }
 
+    public static Polyline read(ByteBuffer b) throws Exception {
+        var p = new Polyline();
+        p.readHeader(b);
+        p.bbox = BoundingBox.read(b);
+
+        p.nparts  = b.getInt();
+        p.npoints = b.getInt();
+
+        p.readParts(b);
+        p.readXY(b);
+
+        return p;
+    }
+
     public static void main(String[] args) throws Exception {
         var src = "examples/ex1/poly_lines.shp";
         var shp = ShpFile.read(src);
@@ -0,0 +1,151 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.shp;
+
+import com.iidp.jgtv.others.BoundingBox;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.BitSet;
+
+/**
+ * Options that control which records of a .shp file are read and which dimensions
+ * of their coordinates. Records that are not selected are skipped using their length,
+ * without decoding them.
+ *
+ * Options are set as a chain of calls, e.g.:
+ *    new ReadOptions().window(BoundingBox.parse("0,0,10,10")).records(selected).readM(false)
+ */
+public class ReadOptions {
+    /** Records outside this window are skipped. If null, all records are read */
+    private BoundingBox window = null;
+    /** Positions (0-based) of the records to read. If null, all records are read */
+    private BitSet records = null;
+    /** Dimensions to read. Blocks of other dimensions are skipped */
+    private boolean readZ = true, readM = true;
+
+    public ReadOptions() {
+    }
+
+    /**
+     * Sets a window, so only records whose bounding box intersects it are read.
+     * Null shapes are skipped, since they do not have a location.
+     *
+     * @param _window query bounding box, or null to read all records.
+     * @return this options
+     */
+    public ReadOptions window(BoundingBox _window) {
+        window = _window;
+        return this;
+    }
+
+    public BoundingBox getWindow() {
+        return window;
+    }
+
+    /**
+     * Sets the records to read, e.g. those selected from the .dbf file with DbfFile.select.
+     * Readers use the .shx file, if it exists, to jump directly to these records.
+     *
+     * @param _records positions (0-based) of the records to read, or null to read all records.
+     * @return this options
+     */
+    public ReadOptions records(BitSet _records) {
+        records = _records;
+        return this;
+    }
+
+    public BitSet getRecords() {
+        return records;
+    }
+
+    /**
+     * Sets if z coordinates are read. If not, they are set to the default
+     * value (see AShape.setDefaultZValue), as for files without z.
+     *
+     * @param _readZ false to skip z coordinates
+     * @return this options
+     */
+    public ReadOptions readZ(boolean _readZ) {
+        readZ = _readZ;
+        return this;
+    }
+
+    /**
+     * Sets if M values are read.
+     *
+     * @param _readM false to skip M values
+     * @return this options
+     */
+    public ReadOptions readM(boolean _readM) {
+        readM = _readM;
+        return this;
+    }
+
+    public boolean isReadZ() {
+        return readZ;
+    }
+
+    public boolean isReadM() {
+        return readM;
+    }
+
+    /** @return true if some records of the file might be skipped */
+    public boolean isFiltered() {
+        return (window != null) || (records != null);
+    }
+
+    /**
+     * Checks if the record at the current position of a buffer should be read.
+     * Only the record header and its bounding box (or coordinates for points) are read,
+     * and the position of the buffer is not changed.
+     *
+     * @param b buffer positioned at the beginning of a record
+     * @param row position (0-based) of the record in the file. The record number stored
+     *            in its header is not used, since some writers do not number records in order.
+     * @return true if the record should be read
+     */
+    public boolean accept(ByteBuffer b, int row) {
+        var pos = b.position();
+        if (records != null && !records.get(row)) return false;
+        if (window == null) return true;
+
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        var type = SHP_TYPE.getShpType(b.getInt(pos + 8));
+        if (type == SHP_TYPE.NULL) {
+            return false;
+        } else if (type == SHP_TYPE.POINT || type == SHP_TYPE.POINTZ || type == SHP_TYPE.POINTM) {
+            return window.contains(b.getDouble(pos + 12), b.getDouble(pos + 20));
+        } else {
+            // Bounding box stored as (xmin, ymin, xmax, ymax) after the shape type
+            return window.intersects(b.getDouble(pos + 12), b.getDouble(pos + 20), b.getDouble(pos + 28), b.getDouble(pos + 36));
+        }
+    }
+
+    /**
+     * Moves a buffer to the beginning of the next record without reading the current one.
+     *
+     * @param b buffer positioned at the beginning of a record
+     */
+    public static void skip(ByteBuffer b) {
+        var pos = b.position();
+        b.order(ByteOrder.BIG_ENDIAN);
+        // 4-7 int32 big Record length (in 16-bit words)
+        var size = b.getInt(pos + 4) * 2 + 8;
+        b.position(pos + size);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.shp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reusable container for a single record of a .shp file.
+ *
+ * Unlike AShape, values are stored in arrays of primitives that are reused
+ * from one record to the next one. Arrays only grow when a record has more
+ * points or parts than all previous ones, so reading a file with the same
+ * ShapeRecord does not create garbage per record.
+ *
+ * Arrays can be longer than the number of points (or parts) in the record,
+ * use getNPoints and getNParts to iterate over them.
+ */
+public class ShapeRecord {
+    /** Record number (1-based) */
+    int id;
+    /** Shape type of this record. It can be NULL in files of any type. */
+    SHP_TYPE type;
+    /** Size in bytes of this record, including header (8 bytes) */
+    int size;
+    /** Bounding box as stored in the file. It is NaN for points and null shapes. */
+    double xmin, ymin, xmax, ymax;
+    /** Number of parts and points */
+    int nparts, npoints;
+    /** First point of each part */
+    int[] parts = new int[4];
+    /** Coordinates and M values */
+    double[] x = new double[64], y = new double[64], z = new double[64], m = new double[64];
+    /** True if z and m hold values read from the file */
+    boolean hasZ, hasM;
+
+    public int getId() { return id; }
+    public SHP_TYPE getType() { return type; }
+    public int getSize() { return size; }
+    public double getXMin() { return xmin; }
+    public double getYMin() { return ymin; }
+    public double getXMax() { return xmax; }
+    public double getYMax() { return ymax; }
+    public int getNParts() { return nparts; }
+    public int getNPoints() { return npoints; }
+    public int[] getParts() { return parts; }
+    public double[] getX() { return x; }
+    public double[] getY() { return y; }
+    /** Returns z coordinates. If the record has no z, they are set to the default elevation. */
+    public double[] getZ() { return z; }
+    /** Returns M values. They are only meaningful if hasM is true. */
+    public double[] getM() { return m; }
+    public boolean hasZ() { return hasZ; }
+    public boolean hasM() { return hasM; }
+
+    private void ensureCapacity(int _nparts, int _npoints) {
+        if (_nparts > parts.length) {
+            parts = new int[Math.max(_nparts, 2 * parts.length)];
+        }
+        if (_npoints > x.length) {
+            var capacity = Math.max(_npoints, 2 * x.length);
+            x = new double[capacity];
+            y = new double[capacity];
+            z = new double[capacity];
+            m = new double[capacity];
+        }
+    }
+
+    /**
+     * Reads a record from a buffer (e.g. a memory mapped .shp file) and replaces
+     * the current content of this container.
+     *
+     * @param b buffer positioned at the beginning of the record. At return, it is
+     *          positioned at the beginning of the next record.
+     * @return this record
+     */
+    public ShapeRecord read(ByteBuffer b) {
+        var start = b.position();
+
+        b.order(ByteOrder.BIG_ENDIAN);
+        id = b.getInt();
+        size = b.getInt() * 2 + 8;
+        b.order(ByteOrder.LITTLE_ENDIAN);
+
+        type = SHP_TYPE.getShpType(b.getInt());
+        xmin = ymin = xmax = ymax = Double.NaN;
+        nparts = npoints = 0;
+        hasZ = hasM = false;
+
+        if (type == SHP_TYPE.NULL) {
+            // nothing else to read
+
+        } else if (type == SHP_TYPE.POINT) {
+            ensureCapacity(1, 1);
+            nparts = npoints = 1;
+            parts[0] = 0;
+            readXY(b);
+
+        } else if (type == SHP_TYPE.MULTIPOINT) {
+            readBoundingBox(b);
+            npoints = b.getInt();
+            nparts = 1;
+            ensureCapacity(nparts, npoints);
+            parts[0] = 0;
+            readXY(b);
+
+        } else if (type == SHP_TYPE.POLYLINE || type == SHP_TYPE.POLYGON || type == SHP_TYPE.POLYGONZ) {
+            readBoundingBox(b);
+            nparts = b.getInt();
+            npoints = b.getInt();
+            ensureCapacity(nparts, npoints);
+            for (int i = 0; i < nparts; i++) {
+                parts[i] = b.getInt();
+            }
+            readXY(b);
+
+            if (type == SHP_TYPE.POLYGONZ) {
+                b.position(b.position() + 16); // z range
+                for (int i = 0; i < npoints; i++) {
+                    z[i] = b.getDouble();
+                }
+                hasZ = true;
+                // M values are optional in Z records
+                if (b.position() - start < size) {
+                    b.position(b.position() + 16); // m range
+                    for (int i = 0; i < npoints; i++) {
+                        m[i] = b.getDouble();
+                    }
+                    hasM = true;
+                }
+            }
+        } else {
+            assert false : "Unknown shape type: " + type;
+        }
+
+        b.position(start + size);
+        return this;
+    }
+
+    private void readBoundingBox(ByteBuffer b) {
+        xmin = b.getDouble();
+        ymin = b.getDouble();
+        xmax = b.getDouble();
+        ymax = b.getDouble();
+    }
+
+    private void readXY(ByteBuffer b) {
+        var zvalue = AShape.getDefaultZValue();
+        for (int i = 0; i < npoints; i++) {
+            x[i] = b.getDouble();
+            y[i] = b.getDouble();
+            z[i] = zvalue;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%d[%d bytes]", type, id, size);
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.shp;
+
+import com.iidp.jgtv.others.BoundingBox;
+import com.iidp.jgtv.others.MappedSource;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * View of a single record of a .shp file that reads its values straight from the
+ * buffer where the record is stored (e.g. a memory mapped file), without copying them.
+ *
+ * When the view is moved to a record, only the position of each block of the record
+ * is computed (parts, coordinates, z and M values). Each call to x(i), y(i), etc.
+ * is a single read from the buffer, so records can be processed in a single pass
+ * without allocating memory for each record or point. It is used to filter records
+ * or compute statistics over files that are much larger than the heap.
+ *
+ * Unlike ShapeRecord, values are not copied, so they are only valid until the
+ * view is moved to the next record. All shape types are supported.
+ *
+ * Usage:
+ *    var v = ShapeView.open("examples/ex2_Chile_watersheds/Cuencas_DGA.shp");
+ *    while (v.next()) {
+ *        for (int i = 0; i < v.pointCount(); i++) {
+ *            sum += v.y(i);
+ *        }
+ *    }
+ */
+public class ShapeView {
+    /** Mapped content of the file, or null if the view is only moved by at */
+    private final MappedSource source;
+    /** Position of the next record in the file and end of the last one */
+    private long next, end;
+
+    /** Buffer with the current record */
+    private ByteBuffer b;
+    /** Position of the current record in the file, or -1 if it is not known */
+    private long offset = -1;
+    /** Position of the current record in the buffer */
+    private int start;
+    /** Values read from the header of the current record */
+    private int id, size, nparts, npoints;
+    private SHP_TYPE type;
+    /** Positions in the buffer of the blocks of the current record, or -1 if they are not present */
+    private int bboxAt, partsAt, xyAt, zAt, mAt;
+
+    private ShapeView(MappedSource _source, long _end) {
+        source = _source;
+        next = 100; // header size = 100 bytes
+        end = _end;
+    }
+
+    /** Creates a view that is only moved to records in buffers (see at) */
+    public ShapeView() {
+        this(null, 0);
+    }
+
+    /**
+     * Opens a .shp file to visit its records in order (see next).
+     *
+     * @param filename path to .shp file
+     * @return a view positioned before the first record
+     * @throws Exception
+     */
+    public static ShapeView open(String filename) throws Exception {
+        return open(MappedSource.map(filename));
+    }
+
+    /**
+     * Creates a view to visit the records of a mapped .shp file in order (see next).
+     * It uses its own copy of the source, so it does not interfere with other readers.
+     *
+     * @param source mapped .shp file
+     * @return a view positioned before the first record
+     * @throws Exception
+     */
+    public static ShapeView open(MappedSource source) throws Exception {
+        var s = source.duplicate();
+        var h = s.at(0, 100).order(ByteOrder.BIG_ENDIAN);
+        // 24-27 int32 big File length (in 16-bit words, including the header)
+        var length = Integer.toUnsignedLong(h.getInt(h.position() + 24)) * 2;
+        return new ShapeView(s, Math.min(length, s.size));
+    }
+
+    /**
+     * Moves the view to the next record of the file.
+     *
+     * @return false if there are no more records
+     * @throws Exception
+     */
+    public boolean next() throws Exception {
+        assert source != null : "View was not created by open";
+        if (next + 8 > end) return false;
+
+        var pos = next;
+        var len = recordSize(source.at(pos, 8));
+        at(source.at(pos, len));
+        offset = pos;
+        next = pos + len;
+        return true;
+    }
+
+    /**
+     * Moves the view to a record at a given position of the file, e.g. read from the .shx file.
+     * The next call to next moves the view to the record that follows it.
+     *
+     * @param pos position of the record in the file
+     * @throws Exception
+     */
+    public void seek(long pos) throws Exception {
+        assert source != null : "View was not created by open";
+        next = pos;
+        next();
+    }
+
+    private static int recordSize(ByteBuffer h) {
+        // 4-7 int32 big Record length (in 16-bit words)
+        return h.order(ByteOrder.BIG_ENDIAN).getInt(h.position() + 4) * 2 + 8;
+    }
+
+    /**
+     * Moves the view to the record at the current position of a buffer. The position
+     * of the buffer is not changed, but its byte order is.
+     *
+     * @param _b buffer positioned at the beginning of a record
+     * @return this view
+     */
+    public ShapeView at(ByteBuffer _b) {
+        b = _b;
+        start = b.position();
+        offset = -1;
+
+        b.order(ByteOrder.BIG_ENDIAN);
+        id = b.getInt(start);
+        size = b.getInt(start + 4) * 2 + 8;
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        type = SHP_TYPE.getShpType(b.getInt(start + 8));
+
+        bboxAt = partsAt = xyAt = zAt = mAt = -1;
+        nparts = npoints = 0;
+        var pos = start + 12;
+        if (type == SHP_TYPE.NULL) {
+            return this;
+
+        } else if (type == SHP_TYPE.POINT || type == SHP_TYPE.POINTZ || type == SHP_TYPE.POINTM) {
+            nparts = npoints = 1;
+            xyAt = pos;
+            pos += 16;
+            if (type == SHP_TYPE.POINTZ) {
+                zAt = pos;
+                pos += 8;
+            }
+            // M is optional in POINTZ records
+            if (type != SHP_TYPE.POINT && pos + 8 <= start + size) {
+                mAt = pos;
+            }
+            return this;
+
+        } else if (type == SHP_TYPE.MULTIPOINT || type == SHP_TYPE.MULTIPOINTZ || type == SHP_TYPE.MULTIPOINTM) {
+            bboxAt = pos;
+            nparts = 1;
+            npoints = b.getInt(pos + 32);
+            pos += 36;
+
+        } else {
+            // POLYLINE, POLYGON and MULTIPATCH, with or without Z and M
+            bboxAt = pos;
+            nparts = b.getInt(pos + 32);
+            npoints = b.getInt(pos + 36);
+            partsAt = pos + 40;
+            pos = partsAt + 4 * nparts;
+            if (type == SHP_TYPE.MULTIPATCH) {
+                pos += 4 * nparts; // part types
+            }
+        }
+
+        xyAt = pos;
+        pos += 16 * npoints;
+        if (type == SHP_TYPE.POLYLINEZ || type == SHP_TYPE.POLYGONZ || type == SHP_TYPE.MULTIPOINTZ || type == SHP_TYPE.MULTIPATCH) {
+            zAt = pos + 16; // after z range
+            pos = zAt + 8 * npoints;
+        }
+        // M values are optional in Z records, so they are only read if the record includes them
+        var withM = zAt >= 0 || type == SHP_TYPE.POLYLINEM || type == SHP_TYPE.POLYGONM || type == SHP_TYPE.MULTIPOINTM;
+        if (withM && pos + 16 + 8 * npoints <= start + size) {
+            mAt = pos + 16; // after m range
+        }
+        return this;
+    }
+
+    /** Returns the record number (1-based) */
+    public int id() { return id; }
+    /** Returns the shape type of the record. It can be NULL in files of any type. */
+    public SHP_TYPE type() { return type; }
+    /** Returns the size of the record in bytes, including its 8 bytes header */
+    public int size() { return size; }
+    /** Returns the position of the record in the file, or -1 if the view was moved by at */
+    public long offset() { return offset; }
+    public int partCount() { return nparts; }
+    public int pointCount() { return npoints; }
+
+    /** Returns the position of the first point of part j */
+    public int part(int j) {
+        return (partsAt < 0) ? 0 : b.getInt(partsAt + 4 * j);
+    }
+
+    public double x(int i) { return b.getDouble(xyAt + 16 * i); }
+    public double y(int i) { return b.getDouble(xyAt + 16 * i + 8); }
+    /** Returns z coordinate of point i. If the record has no z, it is the default elevation. */
+    public double z(int i) { return (zAt < 0) ? AShape.getDefaultZValue() : b.getDouble(zAt + 8 * i); }
+    /** Returns M value of point i, or NaN if the record has no M values */
+    public double m(int i) { return (mAt < 0) ? Double.NaN : b.getDouble(mAt + 8 * i); }
+    public boolean hasZ() { return zAt >= 0; }
+    public boolean hasM() { return mAt >= 0; }
+
+    /** Bounding box as stored in the record. Points have no bounding box, so their coordinates are returned. */
+    public double xmin() { return (bboxAt < 0) ? x(0) : b.getDouble(bboxAt); }
+    public double ymin() { return (bboxAt < 0) ? y(0) : b.getDouble(bboxAt + 8); }
+    public double xmax() { return (bboxAt < 0) ? x(0) : b.getDouble(bboxAt + 16); }
+    public double ymax() { return (bboxAt < 0) ? y(0) : b.getDouble(bboxAt + 24); }
+
+    /**
+     * Returns a copy of the bounding box of the record. Use xmin(), ymin(), etc.
+     * to avoid allocating memory for each record.
+     *
+     * @return the bounding box, or null for null shapes
+     */
+    public BoundingBox bbox() {
+        if (type == SHP_TYPE.NULL) return null;
+        return BoundingBox.of(xmin(), ymin(), xmax(), ymax(), Double.NaN, Double.NaN);
+    }
+
+    /** @return true if the bounding box of the record intersects a window. Null shapes never do. */
+    public boolean intersects(BoundingBox window) {
+        return type != SHP_TYPE.NULL && window.intersects(xmin(), ymin(), xmax(), ymax());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%d[%d parts, %d points, %d bytes]", type, id, nparts, npoints, size);
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.shp;
+
+/**
+ * Callback used to process the records of a .shp file one at a time (see ShpFile.stream).
+ */
+public interface ShapeVisitor {
+    /**
+     * Called once for each record in the file, in the same order as in the file.
+     * The record is reused for the next call, so values that should be kept must be copied.
+     *
+     * @param record last record read from the file.
+     * @throws Exception
+     */
+    void visit(ShapeRecord record) throws Exception;
+}
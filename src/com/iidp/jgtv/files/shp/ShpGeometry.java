@@ -0,0 +1,476 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.files.shp;
+
+import com.iidp.jgtv.others.BoundingBox;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores the geometry of all shapes in a .shp file as contiguous arrays of primitives.
+ *
+ * Coordinates of all points are stored one after the other in x, y, z (and m) arrays.
+ * Shapes and parts are defined by offsets into those arrays:
+ *  - shapeOffsets[i] is the position of the first point of shape i,
+ *  - partOffsets[i] is the position in parts of the first part of shape i,
+ *  - parts[j] is the position of the first point of part j.
+ * Both offset arrays have one extra value at the end, so shape i goes from
+ * shapeOffsets[i] to shapeOffsets[i+1].
+ *
+ * The range of the points of each shape and of all shapes is computed while
+ * coordinates are decoded (see CoordinateDecoder), so it is not computed again later.
+ *
+ * Arrays are allocated with the expected number of points, parts and shapes, and are
+ * shrunk once by trim, after the last record is read, so they are not copied if the
+ * expected sizes were exact (e.g. counted from the headers of the records).
+ */
+public class ShpGeometry {
+    /** Shape type of the file */
+    public final SHP_TYPE type;
+    /** Number of shapes, points and parts */
+    private int nshapes, npoints, nparts;
+    /** Coordinates of all points */
+    private double[] x, y;
+    /** z coordinates, only stored for files that contain them and if they are read. Otherwise, all points have zvalue */
+    private double[] z;
+    private final double zvalue = AShape.getDefaultZValue();
+    /** M values, only stored for files that contain them */
+    private double[] m;
+    /** Offsets of shapes and parts */
+    private int[] shapeOffsets, partOffsets, parts;
+    /** Record number of each shape (1-based) */
+    private int[] ids;
+    /** (xmin, ymin, xmax, ymax) of each shape */
+    private double[] bounds;
+    /** (xmin, ymin, zmin, xmax, ymax, zmax) of all points */
+    private final double[] extent = new double[6];
+    /** Range of the shape that is being added: (xmin, ymin, xmax, ymax) and (zmin, zmax) */
+    private final double[] shapeRange = new double[4], zRange = new double[2];
+    private final CoordinateDecoder decoder = new CoordinateDecoder();
+
+    /**
+     * Creates an empty container.
+     *
+     * @param _type shape type of the file
+     * @param capacity expected number of points. Arrays grow if more points are added.
+     */
+    public ShpGeometry(SHP_TYPE _type, int capacity) {
+        this(_type, capacity, true, true);
+    }
+
+    /**
+     * Creates an empty container that only reads some dimensions from records.
+     *
+     * @param _type shape type of the file
+     * @param capacity expected number of points. Arrays grow if more points are added.
+     * @param readZ if false, z coordinates are skipped and set to the default value
+     * @param readM if false, M values are skipped and not stored
+     */
+    public ShpGeometry(SHP_TYPE _type, int capacity, boolean readZ, boolean readM) {
+        this(_type, Math.max(capacity, 16), 16, 16, readZ, readM);
+    }
+
+    /**
+     * Creates an empty container for a known number of points, parts and shapes.
+     *
+     * @param _type shape type of the file
+     * @param npoints expected number of points
+     * @param nparts expected number of parts
+     * @param nshapes expected number of shapes. Arrays grow if more shapes are added.
+     * @param readZ if false, z coordinates are skipped and set to the default value
+     * @param readM if false, M values are skipped and not stored
+     */
+    public ShpGeometry(SHP_TYPE _type, int npoints, int nparts, int nshapes, boolean readZ, boolean readM) {
+        type = _type;
+        x = new double[npoints];
+        y = new double[npoints];
+        z = (readZ && hasZ(type)) ? new double[npoints] : null;
+        m = (readM && hasM(type)) ? new double[npoints] : null;
+        shapeOffsets = new int[nshapes + 1];
+        partOffsets = new int[nshapes + 1];
+        ids = new int[nshapes];
+        parts = new int[nparts];
+        bounds = new double[4 * nshapes];
+        CoordinateDecoder.reset(extent);
+        CoordinateDecoder.reset(shapeRange);
+        CoordinateDecoder.reset(zRange);
+    }
+
+    /**
+     * Creates an empty container with a capacity estimated from the size of the .shp file.
+     *
+     * @param _type shape type of the file
+     * @param length length of the file in bytes
+     * @return an empty container
+     */
+    public static ShpGeometry forFile(SHP_TYPE _type, long length) {
+        return forFile(_type, length, true, true);
+    }
+
+    /**
+     * Creates an empty container that only reads some dimensions, with a capacity
+     * estimated from the size of the .shp file.
+     */
+    public static ShpGeometry forFile(SHP_TYPE _type, long length, boolean readZ, boolean readM) {
+        var capacity = (length - 100) / bytesPerPoint(_type);
+        return new ShpGeometry(_type, (int) Math.min(capacity, Integer.MAX_VALUE - 8), readZ, readM);
+    }
+
+    private static boolean hasM(SHP_TYPE t) {
+        return t == SHP_TYPE.POLYGONZ || t == SHP_TYPE.POLYLINEZ || t == SHP_TYPE.MULTIPOINTZ || t == SHP_TYPE.POINTZ ||
+               t == SHP_TYPE.POLYGONM || t == SHP_TYPE.POLYLINEM || t == SHP_TYPE.MULTIPOINTM || t == SHP_TYPE.POINTM;
+    }
+
+    private static boolean hasZ(SHP_TYPE t) {
+        return t == SHP_TYPE.POLYGONZ || t == SHP_TYPE.POLYLINEZ || t == SHP_TYPE.MULTIPOINTZ || t == SHP_TYPE.POINTZ;
+    }
+
+    /** Lower bound of bytes used by each point in the file. Used to estimate capacity. */
+    private static int bytesPerPoint(SHP_TYPE t) {
+        if (t == SHP_TYPE.POINT) return 28;
+        if (t == SHP_TYPE.POINTZ) return 44;
+        if (t == SHP_TYPE.POINTM) return 36;
+        if (hasZ(t)) return 32;
+        if (hasM(t)) return 24;
+        return 16;
+    }
+
+    public int getNShapes() { return nshapes; }
+    public int getNPoints() { return npoints; }
+    public int getNParts() { return nparts; }
+
+    /** Returns x coordinates of all points. The array should not be modified. */
+    public double[] getX() { return x; }
+    /** Returns y coordinates of all points. The array should not be modified. */
+    public double[] getY() { return y; }
+    /**
+     * Returns z coordinates of all points. The array should not be modified.
+     * If z coordinates were not stored, a new array filled with the default value is returned.
+     */
+    public double[] getZ() {
+        if (z != null) return z;
+        var zz = new double[x.length];
+        Arrays.fill(zz, zvalue);
+        return zz;
+    }
+    /** Returns M values of all points, or null if the file does not include them. */
+    public double[] getM() { return m; }
+    /** Returns position of first point of each shape (nshapes + 1 values). */
+    public int[] getShapeOffsets() { return shapeOffsets; }
+    /** Returns position in parts of first part of each shape (nshapes + 1 values). */
+    public int[] getPartOffsets() { return partOffsets; }
+    /** Returns position of first point of each part. */
+    public int[] getParts() { return parts; }
+    /** Returns record number of each shape. */
+    public int[] getIds() { return ids; }
+    /** Returns (xmin, ymin, xmax, ymax) of the points of each shape. Shapes without points have xmin > xmax. */
+    public double[] getBounds() { return bounds; }
+
+    /**
+     * Returns the range of all points. If only some records were read, it is the range of
+     * those records, unlike the bounding box in the header of the file.
+     */
+    public BoundingBox getExtent() {
+        return BoundingBox.of(extent[0], extent[1], extent[3], extent[4], extent[2], extent[5]);
+    }
+
+    /**
+     * @return an array with the number of points in each shape.
+     */
+    public int[] getPointsPerShape() {
+        var pps = new int[nshapes];
+        for (int i = 0; i < nshapes; i++) {
+            pps[i] = shapeOffsets[i + 1] - shapeOffsets[i];
+        }
+        return pps;
+    }
+
+    private void ensurePoints(int n) {
+        var needed = npoints + n;
+        if (needed > x.length) {
+            var capacity = Math.max(needed, x.length + (x.length >> 1));
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            if (z != null) z = Arrays.copyOf(z, capacity);
+            if (m != null) m = Arrays.copyOf(m, capacity);
+        }
+    }
+
+    /** Stores z coordinates of all points, which until now had the default value */
+    private void ensureZ() {
+        z = new double[x.length];
+        Arrays.fill(z, 0, npoints, zvalue);
+    }
+
+    private void ensureParts(int n) {
+        var needed = nparts + n;
+        if (needed > parts.length) {
+            parts = Arrays.copyOf(parts, Math.max(needed, parts.length + (parts.length >> 1)));
+        }
+    }
+
+    private void ensureShapes() {
+        if (nshapes + 2 > shapeOffsets.length) {
+            var capacity = Math.max(nshapes + 2, shapeOffsets.length + (shapeOffsets.length >> 1));
+            shapeOffsets = Arrays.copyOf(shapeOffsets, capacity);
+            partOffsets = Arrays.copyOf(partOffsets, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            bounds = Arrays.copyOf(bounds, 4 * capacity);
+        }
+    }
+
+    /**
+     * Shrinks arrays to the number of stored points, parts and shapes. Readers call it once, after
+     * the last record, so getters return arrays with one value for each point, part or shape.
+     * Arrays are only copied if they were allocated larger than needed.
+     */
+    public void trim() {
+        if (x.length != npoints) {
+            x = Arrays.copyOf(x, npoints);
+            y = Arrays.copyOf(y, npoints);
+            if (z != null) z = Arrays.copyOf(z, npoints);
+            if (m != null) m = Arrays.copyOf(m, npoints);
+        }
+        if (parts.length != nparts) parts = Arrays.copyOf(parts, nparts);
+        if (shapeOffsets.length != nshapes + 1) {
+            shapeOffsets = Arrays.copyOf(shapeOffsets, nshapes + 1);
+            partOffsets = Arrays.copyOf(partOffsets, nshapes + 1);
+        }
+        if (ids.length != nshapes) ids = Arrays.copyOf(ids, nshapes);
+        if (bounds.length != 4 * nshapes) bounds = Arrays.copyOf(bounds, 4 * nshapes);
+    }
+
+    /** Closes the current shape. Points and parts added since the previous call belong to it. */
+    private void endShape(int id) {
+        ensureShapes();
+        ids[nshapes] = id;
+        System.arraycopy(shapeRange, 0, bounds, 4 * nshapes, 4);
+        nshapes += 1;
+        shapeOffsets[nshapes] = npoints;
+        partOffsets[nshapes] = nparts;
+
+        extent[0] = Math.min(extent[0], shapeRange[0]);
+        extent[1] = Math.min(extent[1], shapeRange[1]);
+        extent[2] = Math.min(extent[2], zRange[0]);
+        extent[3] = Math.max(extent[3], shapeRange[2]);
+        extent[4] = Math.max(extent[4], shapeRange[3]);
+        extent[5] = Math.max(extent[5], zRange[1]);
+        CoordinateDecoder.reset(shapeRange);
+        CoordinateDecoder.reset(zRange);
+    }
+
+    /** Updates the range of the current shape with a point */
+    private void addToRange(double vx, double vy, double vz) {
+        shapeRange[0] = Math.min(shapeRange[0], vx);
+        shapeRange[1] = Math.min(shapeRange[1], vy);
+        shapeRange[2] = Math.max(shapeRange[2], vx);
+        shapeRange[3] = Math.max(shapeRange[3], vy);
+        zRange[0] = Math.min(zRange[0], vz);
+        zRange[1] = Math.max(zRange[1], vz);
+    }
+
+    /**
+     * Reads a single record from a buffer (e.g. a memory mapped .shp file)
+     * and appends it to this container.
+     *
+     * @param b buffer positioned at the beginning of the record. At return, it is
+     *          positioned at the beginning of the next record.
+     */
+    public void readRecord(ByteBuffer b) {
+        var start = b.position();
+
+        b.order(ByteOrder.BIG_ENDIAN);
+        var id = b.getInt();
+        var size = b.getInt() * 2 + 8;
+        b.order(ByteOrder.LITTLE_ENDIAN);
+
+        var shapeType = SHP_TYPE.getShpType(b.getInt());
+        if (shapeType == SHP_TYPE.NULL) {
+            // Null shapes have no points but keep their place, so attributes stay aligned
+
+        } else if (shapeType == SHP_TYPE.POINT) {
+            ensurePoints(1);
+            ensureParts(1);
+            parts[nparts++] = npoints;
+            readXY(b, 1);
+
+        } else if (shapeType == SHP_TYPE.MULTIPOINT) {
+            b.position(b.position() + 32); // bounding box
+            var n = b.getInt();
+            ensurePoints(n);
+            ensureParts(1);
+            parts[nparts++] = npoints;
+            readXY(b, n);
+
+        } else if (shapeType == SHP_TYPE.POLYLINE || shapeType == SHP_TYPE.POLYGON || shapeType == SHP_TYPE.POLYGONZ) {
+            b.position(b.position() + 32); // bounding box
+            var np = b.getInt();
+            var n = b.getInt();
+            ensurePoints(n);
+            ensureParts(np);
+            // Parts are relative to the first point of the shape
+            b.asIntBuffer().get(parts, nparts, np);
+            for (int i = nparts; i < nparts + np; i++) {
+                parts[i] += npoints;
+            }
+            nparts += np;
+            b.position(b.position() + 4 * np);
+            var first = npoints;
+            readXY(b, n);
+
+            if (shapeType == SHP_TYPE.POLYGONZ) {
+                b.position(b.position() + 16); // z range
+                if (z != null) {
+                    // Range of the default value set by readXY is replaced by the range of the values
+                    CoordinateDecoder.reset(zRange);
+                    decoder.readValues(b, n, z, first, zRange);
+                } else {
+                    b.position(b.position() + 8 * n);
+                }
+                // M values are optional in Z records
+                if (m != null && b.position() - start < size) {
+                    b.position(b.position() + 16); // m range
+                    for (int i = 0; i < n; i++) {
+                        m[first + i] = b.getDouble();
+                    }
+                }
+            }
+        } else {
+            assert false : "Unknown shape type: " + shapeType;
+        }
+
+        endShape(id);
+        b.position(start + size);
+    }
+
+    private void readXY(ByteBuffer b, int n) {
+        decoder.readXY(b, n, x, y, npoints, shapeRange);
+        if (z != null) Arrays.fill(z, npoints, npoints + n, zvalue);
+        if (m != null) Arrays.fill(m, npoints, npoints + n, Double.NaN);
+        if (n > 0) {
+            zRange[0] = Math.min(zRange[0], zvalue);
+            zRange[1] = Math.max(zRange[1], zvalue);
+        }
+        npoints += n;
+    }
+
+    /**
+     * Appends a shape that has already been read.
+     *
+     * @param s shape
+     */
+    public void add(AShape s) {
+        s.addTo(this);
+    }
+
+    /** Appends points and parts of a shape. Parts are relative to the first point of the shape. */
+    void addShape(int id, List<Double> sx, List<Double> sy, List<Double> sz, List<Double> sm, List<Integer> sparts) {
+        var n = sx.size();
+        ensurePoints(n);
+        ensureParts(sparts.size());
+        for (Integer p: sparts) {
+            parts[nparts++] = npoints + p;
+        }
+        var withM = m != null && sm.size() == n;
+        for (int i = 0; i < n; i++) {
+            x[npoints] = sx.get(i);
+            y[npoints] = sy.get(i);
+            double vz = sz.get(i);
+            if (z == null && vz != zvalue) ensureZ();
+            if (z != null) z[npoints] = vz;
+            if (m != null) m[npoints] = withM ? sm.get(i) : Double.NaN;
+            addToRange(x[npoints], y[npoints], vz);
+            npoints += 1;
+        }
+        endShape(id);
+    }
+
+    /**
+     * Creates a container from a list of shapes that have already been read.
+     *
+     * @param type shape type of the file
+     * @param shapes list of shapes
+     * @return a container with all points in shapes
+     */
+    public static ShpGeometry fromShapes(SHP_TYPE type, List<AShape> shapes) {
+        var n = 0L;
+        var np = 0L;
+        for (AShape s: shapes) {
+            n += s.getNPoints();
+            np += s.getNParts();
+        }
+        var g = new ShpGeometry(type, (int) n, (int) np, shapes.size(), true, true);
+        for (AShape s: shapes) {
+            g.add(s);
+        }
+        g.trim();
+        return g;
+    }
+
+    /**
+     * Creates a container from a set of points, with one shape of one point for each of them.
+     *
+     * @param p points of a POINT, POINTZ or POINTM file
+     * @return a container with all points
+     */
+    public static ShpGeometry fromPoints(PointSet p) {
+        var n = p.getNPoints();
+        var valid = 0;
+        for (int i = 0; i < n; i++) {
+            if (!p.isNull(i)) valid += 1;
+        }
+        var g = new ShpGeometry(p.type, valid, valid, n, true, p.getM() != null);
+        var px = p.getX();
+        var py = p.getY();
+        var pz = p.getZ();
+        var pm = p.getM();
+        var pids = p.getIds();
+        for (int i = 0; i < n; i++) {
+            // Null records are null shapes, without points
+            if (!p.isNull(i)) {
+                var j = g.npoints;
+                g.parts[g.nparts++] = j;
+                g.x[j] = px[i];
+                g.y[j] = py[i];
+                if (g.z == null && pz[i] != g.zvalue) g.ensureZ();
+                if (g.z != null) g.z[j] = pz[i];
+                if (g.m != null) g.m[j] = pm[i];
+                g.addToRange(px[i], py[i], pz[i]);
+                g.npoints += 1;
+            }
+            g.endShape(pids[i]);
+        }
+        g.trim();
+        return g;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%d shapes, %d parts, %d points]", type, nshapes, nparts, npoints);
+    }
+
+    /**
+     * Prints summary of this container to stream.
+     */
+    public void display(PrintStream out) {
+        out.println(this);
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.others;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a file as a sequence of large chunks through an AsynchronousFileChannel.
+ *
+ * It keeps a ring of direct buffers. While the caller decodes the current chunk,
+ * the following chunks are being read in the background, so disk reads and decoding overlap.
+ * Once a chunk is consumed, its buffer is reused to prefetch a chunk further ahead.
+ *
+ * Content is read with peek, which returns a buffer with the next n bytes of the file.
+ * Bytes are usually read straight from the current chunk, but when they are split
+ * between chunks (e.g. a record that straddles a boundary) they are copied to a
+ * separate buffer. Usage:
+ *    try (var in = new AsyncFileReader(path, 1 << 22, 3)) {
+ *        for (var b = in.peek(8); b != null; b = in.peek(8)) {
+ *            var n = ...; // size of the record from its header
+ *            b = in.peek(n);
+ *            ... // decode the record moving the position of b to its end
+ *        }
+ *    }
+ */
+public class AsyncFileReader implements AutoCloseable {
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 22; // 4 MB
+    public static final int DEFAULT_NBUFFERS = 3;
+
+    private final AsynchronousFileChannel channel;
+    /** Size of the file in bytes */
+    public final long size;
+    private final ByteBuffer[] buffers;
+    /** Read of the chunk of each buffer that is in progress, or null */
+    private final List<Future<Integer>> pending;
+    /** Position in the file of the chunk stored in each buffer */
+    private final long[] positions;
+    /** Position in the file of the next chunk to request */
+    private long nextPosition = 0;
+    /** Buffer returned by the last call to next, or -1 */
+    private int current = -1;
+    /** Chunk that is being read, or null */
+    private ByteBuffer chunk = null;
+    /** Bytes split between chunks. It is used if it has remaining bytes */
+    private ByteBuffer straddle = ByteBuffer.allocate(0);
+
+    /**
+     * Opens a file and starts reading its first chunks.
+     *
+     * @param path path to file
+     * @param chunkSize size of each chunk in bytes
+     * @param nbuffers number of buffers in the ring (at least 2)
+     * @throws IOException
+     */
+    public AsyncFileReader(String path, int chunkSize, int nbuffers) throws IOException {
+        assert nbuffers >= 2 : "At least two buffers are needed to overlap reading and decoding";
+        channel = AsynchronousFileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        size = channel.size();
+        buffers = new ByteBuffer[nbuffers];
+        pending = new ArrayList<Future<Integer>>(nbuffers);
+        positions = new long[nbuffers];
+        for (int i = 0; i < nbuffers; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(chunkSize);
+            pending.add(null);
+            request(i);
+        }
+    }
+
+    public AsyncFileReader(String path) throws IOException {
+        this(path, DEFAULT_CHUNK_SIZE, DEFAULT_NBUFFERS);
+    }
+
+    /** Starts reading the next chunk of the file into a buffer */
+    private void request(int i) {
+        positions[i] = nextPosition;
+        if (nextPosition >= size) {
+            pending.set(i, null);
+            return;
+        }
+        buffers[i].clear();
+        pending.set(i, channel.read(buffers[i], nextPosition));
+        nextPosition += buffers[i].capacity();
+    }
+
+    /**
+     * Waits for the next chunk of the file. The previous chunk is released and
+     * its buffer is used to prefetch another one.
+     *
+     * @return buffer with the content of the chunk, positioned at its beginning,
+     *         or null at the end of the file
+     * @throws Exception
+     */
+    private ByteBuffer next() throws Exception {
+        if (current >= 0) {
+            request(current);
+        }
+        current = (current + 1) % buffers.length;
+        if (pending.get(current) == null) {
+            return null;
+        }
+
+        var b = buffers[current];
+        pending.get(current).get();
+        // A read can return less bytes than requested, so complete the chunk before decoding it
+        var end = Math.min(size, positions[current] + b.capacity());
+        while (positions[current] + b.position() < end) {
+            var n = channel.read(b, positions[current] + b.position()).get();
+            if (n < 0) break;
+        }
+        b.flip();
+        return b;
+    }
+
+    /**
+     * Returns a buffer positioned at the next unread byte of the file, with at least n
+     * remaining bytes. Bytes are consumed by moving the position of the buffer, so the
+     * next call continues from there. The buffer should not be used after the next call.
+     *
+     * @param n number of bytes that are needed
+     * @return a buffer with the next n bytes of the file, or null if the file ends before
+     * @throws Exception
+     */
+    public ByteBuffer peek(int n) throws Exception {
+        if (!straddle.hasRemaining()) {
+            if (chunk == null || !chunk.hasRemaining()) {
+                chunk = next();
+                if (chunk == null) return null;
+            }
+            if (chunk.remaining() >= n) return chunk;
+        }
+
+        // Bytes are split between chunks, so copy them to a single buffer
+        if (straddle.capacity() < n) {
+            straddle = ByteBuffer.allocate(Math.max(n, 2 * straddle.capacity())).put(straddle);
+        } else {
+            straddle.compact();
+        }
+        while (straddle.position() < n) {
+            if (chunk == null || !chunk.hasRemaining()) {
+                chunk = next();
+                if (chunk == null) {
+                    straddle.flip();
+                    return null;
+                }
+            }
+            var k = Math.min(n - straddle.position(), chunk.remaining());
+            straddle.put(chunk.slice().limit(k));
+            chunk.position(chunk.position() + k);
+        }
+        straddle.flip();
+        return straddle;
+    }
+
+    /**
+     * Returns a stream that reads the content of the file through this reader,
+     * e.g. to use it with parsers that read from a DataInputStream.
+     */
+    public InputStream toInputStream() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                var b = peekOrFail(1);
+                if (b == null) return -1;
+                return b.get() & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] dst, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                var b = peekOrFail(1);
+                if (b == null) return -1;
+                var n = Math.min(len, b.remaining());
+                b.get(dst, off, n);
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                AsyncFileReader.this.close();
+            }
+        };
+    }
+
+    private ByteBuffer peekOrFail(int n) throws IOException {
+        try {
+            return peek(n);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
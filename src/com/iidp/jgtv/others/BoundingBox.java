@@ -17,6 +17,7 @@
 package com.iidp.jgtv.others;
 
 import java.io.DataInputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Defines a bounding box (xmin, xmax, ymin, ymax, zmin, zmax) to store and read
@@ -45,6 +46,56 @@ public class BoundingBox {
         zmax = _zmax;
     }
 
+    public double getXMin() { return xmin; }
+    public double getXMax() { return xmax; }
+    public double getYMin() { return ymin; }
+    public double getYMax() { return ymax; }
+    public double getZMin() { return zmin; }
+    public double getZMax() { return zmax; }
+
+    /**
+     * Creates a bounding box from its limits, given in the same order used in .shp files.
+     */
+    public static BoundingBox of(double _xmin, double _ymin, double _xmax, double _ymax, double _zmin, double _zmax) {
+        return new BoundingBox(_xmin, _xmax, _ymin, _ymax, _zmin, _zmax);
+    }
+
+    /**
+     * Checks if this bounding box and another one, given by its limits, overlap.
+     * Boxes that only share an edge are considered to intersect.
+     */
+    public boolean intersects(double _xmin, double _ymin, double _xmax, double _ymax) {
+        return _xmin <= xmax && _xmax >= xmin && _ymin <= ymax && _ymax >= ymin;
+    }
+
+    /** Checks if a point is inside this bounding box or on its edges. */
+    public boolean contains(double x, double y) {
+        return x >= xmin && x <= xmax && y >= ymin && y <= ymax;
+    }
+
+    /**
+     * Creates a bounding box from a string with format "xmin,ymin,xmax,ymax",
+     * which is the same order used in .shp files.
+     *
+     * @param s string with 4 comma separated values
+     * @return a bounding box
+     * @throws Exception if the string is not well formed
+     */
+    public static BoundingBox parse(String s) throws Exception {
+        var values = s.split(",");
+        if (values.length != 4) {
+            throw new Exception("Bad formed bounding box, expected xmin,ymin,xmax,ymax: " + s);
+        }
+        var _xmin = Double.parseDouble(values[0].strip());
+        var _ymin = Double.parseDouble(values[1].strip());
+        var _xmax = Double.parseDouble(values[2].strip());
+        var _ymax = Double.parseDouble(values[3].strip());
+        if (_xmin > _xmax || _ymin > _ymax) {
+            throw new Exception("Empty bounding box: " + s);
+        }
+        return new BoundingBox(_xmin, _xmax, _ymin, _ymax);
+    }
+
     @Override
     public String toString() {
         var s = "";
@@ -62,9 +113,10 @@ public class BoundingBox {
      * @param b binary stream.
      */
     public static BoundingBox read(DataInputStream b) throws Exception {
+        // Values are stored as (xmin, ymin, xmax, ymax)
         var _xmin = LittleEndian.readDouble(b);
-        var _xmax = LittleEndian.readDouble(b);
         var _ymin = LittleEndian.readDouble(b);
+        var _xmax = LittleEndian.readDouble(b);
         var _ymax = LittleEndian.readDouble(b);
 
         return new BoundingBox(_xmin, _xmax, _ymin, _ymax);
@@ -81,4 +133,27 @@ public class BoundingBox {
         bbox.zmax = _zmax;
         return bbox;
     }
+
+    /**
+     * Reads bounding box from a buffer stored in little endian order.
+     * It expects 4 8-bytes double values at the current position of the buffer.
+     * @param b buffer.
+     */
+    public static BoundingBox read(ByteBuffer b) {
+        var _xmin = b.getDouble();
+        var _ymin = b.getDouble();
+        var _xmax = b.getDouble();
+        var _ymax = b.getDouble();
+
+        return new BoundingBox(_xmin, _xmax, _ymin, _ymax);
+    }
+
+    /**
+     * Reads zmin and zmax from a little endian buffer and update existing BoundingBox
+     */
+    public static BoundingBox readZ(ByteBuffer b, BoundingBox bbox) {
+        bbox.zmin = b.getDouble();
+        bbox.zmax = b.getDouble();
+        return bbox;
+    }
 }
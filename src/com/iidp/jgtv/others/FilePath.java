@@ -206,6 +206,25 @@ public class FilePath {
         return e.substring(begin + 1);
     }
 
+    /**
+     * Replaces the extension of a file path, e.g. to find the .shx file of a .shp file.
+     * The case of the new extension follows the case of the old one.
+     *
+     * @param path string that represents a path
+     * @param extension new extension without dot, e.g. shx
+     * @return path with the new extension
+     */
+    public static String replaceExtension(String path, String extension) {
+        var pos = path.lastIndexOf(".");
+        if (pos < 0) return path + "." + extension;
+
+        var old = path.substring(pos + 1);
+        if (!old.isEmpty() && old.equals(old.toUpperCase())) {
+            extension = extension.toUpperCase();
+        }
+        return path.substring(0, pos + 1) + extension;
+    }
+
     // TESTS
     private static void testRelativePath() throws Exception {
         var path = "C:/Users/paulo/IdeaProjects/JGTV";
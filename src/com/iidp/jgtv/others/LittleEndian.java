@@ -17,16 +17,14 @@
 package com.iidp.jgtv.others;
 
 import java.io.DataInputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 
 /**
  * Static methods to read data from binary stream that stored them in little endian format.
+ * Methods do not share any state, so they can be used to read several streams concurrently.
+ * To read blocks of values use LittleEndianInput, which decodes them in bulk.
  */
 public class LittleEndian {
-    private static ByteBuffer buff;
-    private static byte[] bytes8 = new byte[8];
 
     /**
      * Reads a 2-bytes long char stored in little endian format.
@@ -85,9 +83,8 @@ public class LittleEndian {
      * @throws Exception
      */
     public static float readFloat(DataInputStream b) throws Exception {
-        b.read(bytes8, 0, 4);
-        var v = ByteBuffer.wrap(bytes8).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        return v;
+        var li = b.readInt();
+        return Float.intBitsToFloat(Integer.reverseBytes(li));
     }
 
     /**
@@ -98,12 +95,36 @@ public class LittleEndian {
      * @throws Exception
      */
     public static double readDouble(DataInputStream b) throws Exception {
-        b.read(bytes8, 0, 8);
-        var v = ByteBuffer.wrap(bytes8).order(ByteOrder.LITTLE_ENDIAN).getDouble();
-        return v;
+        var ll = b.readLong();
+        return Double.longBitsToDouble(Long.reverseBytes(ll));
+    }
+
+    /**
+     * Reads n 8-bytes long float values stored in little endian format.
+     *
+     * @param b binary stream
+     * @param dst array where values are stored
+     * @param off position in dst of the first value
+     * @param n number of values to read
+     * @throws Exception
+     */
+    public static void readDoubles(DataInputStream b, double[] dst, int off, int n) throws Exception {
+        LittleEndianInput.of(b).readDoubles(dst, off, n);
+    }
+
+    /**
+     * Reads n 4-bytes long integers stored in little endian format.
+     *
+     * @param b binary stream
+     * @param dst array where values are stored
+     * @param off position in dst of the first value
+     * @param n number of values to read
+     * @throws Exception
+     */
+    public static void readInts(DataInputStream b, int[] dst, int off, int n) throws Exception {
+        LittleEndianInput.of(b).readInts(dst, off, n);
     }
 
-    private static byte[] bytesString = new byte[120];
     /**
      * Read string from byte array assuming ISO_8859_1 encoding (sequence of 1-byte long chars).
      * @param b binary stream.
@@ -115,8 +136,7 @@ public class LittleEndian {
         if (length < 0) return ""; // DEBUG
         var bytesString = new byte[length];
 
-        var nread = b.read(bytesString);
-        assert (nread == length): "nread: " + nread + "   length: " + length;
+        b.readFully(bytesString);
 
         var str = new String(bytesString, StandardCharsets.ISO_8859_1);
         // This is needed to prevent that the new String keep carrying null chars around.
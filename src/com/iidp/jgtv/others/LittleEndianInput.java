@@ -0,0 +1,105 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.others;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Binary stream that decodes values stored in little endian format.
+ *
+ * Each stream has its own buffer, so different files can be read concurrently
+ * (one stream per file). Blocks of values are read with a single call and decoded
+ * in bulk from the buffer, which is much faster than decoding one value at a time.
+ * Since it is a DataInputStream, big endian values can still be read with the usual methods.
+ */
+public class LittleEndianInput extends DataInputStream {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final byte[] bytes = new byte[BUFFER_SIZE];
+    private final ByteBuffer view = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    private final DoubleBuffer doubles = view.asDoubleBuffer();
+    private final IntBuffer ints = view.asIntBuffer();
+
+    public LittleEndianInput(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Returns b if it is already a LittleEndianInput, or a new one that reads from b otherwise.
+     * It is used by methods that receive a DataInputStream, so they can decode in bulk.
+     */
+    public static LittleEndianInput of(DataInputStream b) {
+        if (b instanceof LittleEndianInput) {
+            return (LittleEndianInput) b;
+        }
+        return new LittleEndianInput(b);
+    }
+
+    /** Reads a 4-bytes long integer stored in little endian format. */
+    public int readIntLE() throws IOException {
+        return Integer.reverseBytes(readInt());
+    }
+
+    /** Reads a 8-bytes long float value stored in little endian format. */
+    public double readDoubleLE() throws IOException {
+        return Double.longBitsToDouble(Long.reverseBytes(readLong()));
+    }
+
+    /**
+     * Reads n 8-bytes long float values stored in little endian format.
+     *
+     * @param dst array where values are stored
+     * @param off position in dst of the first value
+     * @param n number of values to read
+     * @throws IOException if the stream ends before n values are read
+     */
+    public void readDoubles(double[] dst, int off, int n) throws IOException {
+        while (n > 0) {
+            var count = Math.min(n, BUFFER_SIZE / 8);
+            readFully(bytes, 0, 8 * count);
+            doubles.clear();
+            doubles.get(dst, off, count);
+            off += count;
+            n -= count;
+        }
+    }
+
+    /**
+     * Reads n 4-bytes long integers stored in little endian format.
+     *
+     * @param dst array where values are stored
+     * @param off position in dst of the first value
+     * @param n number of values to read
+     * @throws IOException if the stream ends before n values are read
+     */
+    public void readInts(int[] dst, int off, int n) throws IOException {
+        while (n > 0) {
+            var count = Math.min(n, BUFFER_SIZE / 4);
+            readFully(bytes, 0, 4 * count);
+            ints.clear();
+            ints.get(dst, off, count);
+            off += count;
+            n -= count;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.others;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Growable array of 8 bytes values (double or long) stored outside of the heap,
+ * in a temporary file that is mapped into memory.
+ *
+ * Values are stored in chunks of fixed size, and a new chunk of the file is mapped
+ * when the last one is full, so the array can be larger than the heap and than 2 GB.
+ * The operating system keeps the pages that are being used in memory and writes
+ * the others to the file when memory is needed.
+ *
+ * The temporary file is deleted when the column is closed (or when the JVM exits).
+ * Values should not be read after the column is closed.
+ */
+public class MappedColumn implements AutoCloseable {
+    /** Number of values in each chunk: 2^23 values = 64 MB */
+    private static final int CHUNK_SHIFT = 23;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final FileChannel channel;
+    private final ArrayList<MappedByteBuffer> chunks = new ArrayList<>();
+    /** Number of values */
+    private long size = 0;
+
+    /**
+     * Creates an empty column.
+     *
+     * @param dir directory where the temporary file is created, or null to use the default
+     *            temporary directory. It should have enough space for all values.
+     * @param name prefix of the name of the temporary file
+     * @throws IOException
+     */
+    public MappedColumn(String dir, String name) throws IOException {
+        var path = (dir == null) ? Files.createTempFile(name, ".tmp") : Files.createTempFile(Paths.get(dir), name, ".tmp");
+        path.toFile().deleteOnExit();
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                   StandardOpenOption.DELETE_ON_CLOSE, StandardOpenOption.SPARSE);
+    }
+
+    public long size() { return size; }
+
+    /** Maps a new chunk at the end of the file, so the file grows as needed */
+    private MappedByteBuffer addChunk() throws IOException {
+        var start = (long) chunks.size() * CHUNK_SIZE * 8;
+        var chunk = channel.map(FileChannel.MapMode.READ_WRITE, start, (long) CHUNK_SIZE * 8);
+        chunk.order(ByteOrder.LITTLE_ENDIAN);
+        chunks.add(chunk);
+        return chunk;
+    }
+
+    private MappedByteBuffer chunkFor(long i) throws IOException {
+        var c = (int) (i >>> CHUNK_SHIFT);
+        return (c < chunks.size()) ? chunks.get(c) : addChunk();
+    }
+
+    public void addDouble(double v) throws IOException {
+        chunkFor(size).putDouble((int) (size & CHUNK_MASK) << 3, v);
+        size += 1;
+    }
+
+    public void addLong(long v) throws IOException {
+        chunkFor(size).putLong((int) (size & CHUNK_MASK) << 3, v);
+        size += 1;
+    }
+
+    public double getDouble(long i) {
+        return chunks.get((int) (i >>> CHUNK_SHIFT)).getDouble((int) (i & CHUNK_MASK) << 3);
+    }
+
+    public long getLong(long i) {
+        return chunks.get((int) (i >>> CHUNK_SHIFT)).getLong((int) (i & CHUNK_MASK) << 3);
+    }
+
+    /** Changes a value that has already been added */
+    public void setDouble(long i, double v) {
+        assert i < size : "Index out of range: " + i;
+        chunks.get((int) (i >>> CHUNK_SHIFT)).putDouble((int) (i & CHUNK_MASK) << 3, v);
+    }
+
+    @Override
+    public void close() throws IOException {
+        chunks.clear();
+        channel.close();
+    }
+}
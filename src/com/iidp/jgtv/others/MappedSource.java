@@ -0,0 +1,200 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.others;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Maps a file of any size into memory in read only mode.
+ *
+ * A single ByteBuffer can not address more than 2 GB, so the file is mapped as a
+ * sequence of regions. Each region starts at a multiple of the region size and
+ * overlaps the next one, so blocks of bytes that cross the boundary between regions
+ * (e.g. records) can still be read from a single buffer. Blocks larger than the
+ * overlap that cross a boundary are mapped on their own when they are needed.
+ *
+ * Content is read with at(pos, len), which returns the buffer of a region positioned
+ * at a given offset of the file. Buffers are shared, so a MappedSource should only be
+ * used by one thread at a time. Other threads can use their own copy (see duplicate).
+ *
+ * A MappedSource can also be a part of a mapped file (see slice), e.g. a file stored in
+ * a zip archive, or wrap content that is already in memory (see wrap).
+ */
+public class MappedSource {
+    public static final long DEFAULT_REGION_SIZE = 1L << 30; // 1 GB
+    public static final int DEFAULT_OVERLAP = 1 << 24;     // 16 MB
+
+    /** Path to file */
+    public final String src;
+    /** Size of the file (or of the part of the file) in bytes */
+    public final long size;
+    /** Position in the file of the first byte of this source */
+    private final long base;
+    /** Distance between the beginning of consecutive regions */
+    private final long regionSize;
+    private final ByteBuffer[] regions;
+    /** Buffers used to read each region, so their position does not affect other users */
+    private final ByteBuffer[] views;
+
+    private MappedSource(String _src, long _base, long _size, long _regionSize, ByteBuffer[] _regions) {
+        src = _src;
+        base = _base;
+        size = _size;
+        regionSize = _regionSize;
+        regions = _regions;
+        views = new ByteBuffer[regions.length];
+        for (int i = 0; i < regions.length; i++) {
+            views[i] = regions[i].duplicate();
+        }
+    }
+
+    public static MappedSource map(String path) throws IOException {
+        return map(path, DEFAULT_REGION_SIZE, DEFAULT_OVERLAP);
+    }
+
+    /**
+     * Maps a whole file into memory.
+     *
+     * @param path path to file
+     * @param regionSize distance between the beginning of consecutive regions in bytes
+     * @param overlap number of bytes that each region overlaps the next one
+     * @return the mapped file
+     * @throws IOException
+     */
+    public static MappedSource map(String path, long regionSize, int overlap) throws IOException {
+        assert regionSize + overlap <= Integer.MAX_VALUE : "Regions should be smaller than 2 GB";
+        try (var ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            var size = ch.size();
+            var n = (int) Math.max(1, (size + regionSize - 1) / regionSize);
+            var regions = new ByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                var start = i * regionSize;
+                var length = Math.min(regionSize + overlap, size - start);
+                regions[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+            return new MappedSource(path, 0, size, regionSize, regions);
+        }
+    }
+
+    /**
+     * Creates a source from content that is already in memory, e.g. a decompressed file.
+     *
+     * @param name name of the content, only used in messages
+     * @param b buffer with the content between its position and its limit
+     * @return a source with a single region
+     */
+    public static MappedSource wrap(String name, ByteBuffer b) {
+        var region = b.slice();
+        return new MappedSource(name, 0, region.capacity(), Math.max(1, region.capacity()), new ByteBuffer[] {region});
+    }
+
+    /** @return a copy that shares the mapped regions, but that can be used by a different thread */
+    public MappedSource duplicate() {
+        return new MappedSource(src, base, size, regionSize, regions);
+    }
+
+    /**
+     * Returns a part of this source, which shares the mapped regions.
+     * Positions in the returned source are relative to the beginning of the part.
+     *
+     * @param pos position of the part in this source in bytes
+     * @param length size of the part in bytes
+     * @return a source with the part
+     */
+    public MappedSource slice(long pos, long length) {
+        assert pos >= 0 && pos + length <= size : "Slice outside of source: " + pos + ", " + length;
+        return new MappedSource(src, base + pos, length, regionSize, regions);
+    }
+
+    /**
+     * Returns a buffer positioned at an offset of the file, with at least len remaining bytes
+     * (or the remaining bytes of the file, if it ends before). The buffer is only valid until
+     * the next call, and its byte order is not defined.
+     *
+     * @param pos offset in the file in bytes
+     * @param len number of bytes that are needed
+     * @return a buffer positioned at pos
+     * @throws IOException
+     */
+    public ByteBuffer at(long pos, int len) throws IOException {
+        pos += base;
+        var i = (int) Math.min(pos / regionSize, views.length - 1);
+        var local = (int) (pos - i * regionSize);
+        var b = views[i];
+        if (local + len <= b.capacity() || i == views.length - 1) {
+            b.limit(b.capacity());
+            b.position(local);
+            return b;
+        }
+
+        // The block crosses the end of the region, so map it on its own
+        try (var ch = FileChannel.open(Paths.get(src), StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(len, base + size - pos));
+        }
+    }
+
+    /**
+     * Returns a stream that reads the content of this source from its beginning,
+     * e.g. to use it with parsers that read from a DataInputStream.
+     * Bytes are copied straight from the mapped regions.
+     */
+    public InputStream toInputStream() {
+        return new InputStream() {
+            private long pos = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (pos >= size) return -1;
+                var b = at(pos, 1);
+                pos += 1;
+                return b.get(b.position()) & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] dst, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                if (pos >= size) return -1;
+                var n = (int) Math.min(len, size - pos);
+                at(pos, n).get(dst, off, n);
+                pos += n;
+                return n;
+            }
+
+            @Override
+            public long skip(long n) {
+                n = Math.max(0, Math.min(n, size - pos));
+                pos += n;
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(size - pos, Integer.MAX_VALUE);
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d bytes, %d regions", src, size, regions.length);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.others;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Writes a VTK collection file (.pvd) that groups several VTK files, so they are opened
+ * together as a single dataset, e.g. in ParaView. All files are parts of the same time step.
+ *
+ * VTK XML files store the number of points and cells in their header, so records can not
+ * be appended to them. Instead, new records are written to a new file and the collection,
+ * which is small, is written again with all files.
+ *
+ * REFERENCES:
+ *  - https://www.paraview.org/Wiki/ParaView/Data_formats#PVD_File_Format
+ */
+public class VtkCollection {
+
+    /**
+     * Writes a collection file.
+     *
+     * @param path path to file without extension
+     * @param files paths to the files of the collection. They are stored relative to the collection.
+     * @return path to the file including its extension
+     * @throws IOException
+     */
+    public static String write(String path, List<String> files) throws IOException {
+        var full_path = path + ".pvd";
+        var dir = Paths.get(full_path).toAbsolutePath().getParent();
+
+        var s = new StringBuilder();
+        s.append("<?xml version=\"1.0\"?>\n");
+        s.append("<VTKFile type=\"Collection\" version=\"0.1\" byte_order=\"LittleEndian\">\n");
+        s.append("<Collection>\n");
+        for (int i = 0; i < files.size(); i++) {
+            var file = dir.relativize(Paths.get(files.get(i)).toAbsolutePath()).toString().replace('\\', '/');
+            s.append(String.format("<DataSet timestep=\"0\" part=\"%d\" file=\"%s\"/>\n", i, file.replace("&", "&amp;").replace("\"", "&quot;")));
+        }
+        s.append("</Collection>\n");
+        s.append("</VTKFile>\n");
+
+        Files.write(Paths.get(full_path), s.toString().getBytes(StandardCharsets.UTF_8));
+        return full_path;
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.others;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Writes an unstructured grid as a VTK XML file (.vtu) with raw binary data appended
+ * at the end of the file, the same format written by EVTK.
+ *
+ * Unlike EVTK, values are not passed as arrays but read one by one from functions
+ * while the file is written, so they can be stored anywhere, e.g. outside of the heap
+ * (see MappedColumn). Sizes of data blocks are 64-bit, so grids can be larger than 4 GB.
+ * Usage:
+ *    new VtuWriter("tmp/grid")
+ *        .points(npoints, i -> x[i], i -> y[i], i -> z[i])
+ *        .cells(ncells, npoints, i -> i, i -> offsets[i], VtuWriter.VTK_POLY_LINE)
+ *        .addCellData("pressure", i -> p[i])
+ *        .addIntCellData("unit", i -> codes[i])
+ *        .write();
+ *
+ * REFERENCES:
+ *  - https://vtk.org/wp-content/uploads/2015/04/file-formats.pdf
+ */
+public class VtuWriter {
+    public static final int VTK_VERTEX = 1;
+    public static final int VTK_POLY_LINE = 4;
+    public static final int VTK_POLYGON = 7;
+
+    /** Returns the value at a position of an array of doubles */
+    public interface Values { double get(long i); }
+    /** Returns the value at a position of an array of indices */
+    public interface Indices { long get(long i); }
+    /** Returns the value at a position of an array of integers, e.g. codes of categories */
+    public interface Ints { int get(long i); }
+
+    /** Variable with one value for each point or cell, stored as Float64 or Int32 */
+    private static class DataArray {
+        final String name;
+        final Values values;
+        final Ints ints;
+
+        DataArray(String _name, Values _values, Ints _ints) {
+            name = _name;
+            values = _values;
+            ints = _ints;
+        }
+
+        String type() { return (ints != null) ? "Int32" : "Float64"; }
+        int size() { return (ints != null) ? 4 : 8; }
+    }
+
+    /** Path to file without extension */
+    private final String path;
+    private final List<String> comments = new ArrayList<>();
+    private long npoints, ncells, nconn;
+    private Values x, y, z;
+    private Indices connectivity, offsets;
+    private byte cellType;
+    private final LinkedHashMap<String, DataArray> pointData = new LinkedHashMap<>();
+    private final LinkedHashMap<String, DataArray> cellData = new LinkedHashMap<>();
+
+    /** Size of the buffer used to write blocks of data */
+    private static final int BUFFER_SIZE = 1 << 20;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+
+    public VtuWriter(String _path) {
+        path = _path;
+    }
+
+    /**
+     * Sets the coordinates of the points of the grid.
+     *
+     * @param n number of points
+     */
+    public VtuWriter points(long n, Values _x, Values _y, Values _z) {
+        npoints = n;
+        x = _x;
+        y = _y;
+        z = _z;
+        return this;
+    }
+
+    /**
+     * Sets the cells of the grid, which should all be of the same type.
+     *
+     * @param n number of cells
+     * @param _nconn number of values in connectivity
+     * @param _connectivity points of all cells, one cell after the other
+     * @param _offsets position in connectivity of the end of each cell
+     * @param _cellType VTK cell type, e.g. VTK_POLYGON
+     */
+    public VtuWriter cells(long n, long _nconn, Indices _connectivity, Indices _offsets, int _cellType) {
+        ncells = n;
+        nconn = _nconn;
+        connectivity = _connectivity;
+        offsets = _offsets;
+        cellType = (byte) _cellType;
+        return this;
+    }
+
+    /** Adds a variable with one value for each point */
+    public VtuWriter addPointData(String name, Values values) {
+        pointData.put(name, new DataArray(name, values, null));
+        return this;
+    }
+
+    /** Adds a variable with one integer value for each point, which is written as Int32 */
+    public VtuWriter addIntPointData(String name, Ints values) {
+        pointData.put(name, new DataArray(name, null, values));
+        return this;
+    }
+
+    /** Adds a variable with one value for each cell */
+    public VtuWriter addCellData(String name, Values values) {
+        cellData.put(name, new DataArray(name, values, null));
+        return this;
+    }
+
+    /** Adds a variable with one integer value for each cell, which is written as Int32 */
+    public VtuWriter addIntCellData(String name, Ints values) {
+        cellData.put(name, new DataArray(name, null, values));
+        return this;
+    }
+
+    /** Adds a comment that is written at the beginning of the file */
+    public VtuWriter addComment(String comment) {
+        comments.add(comment);
+        return this;
+    }
+
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private String header() {
+        var h = new StringBuilder();
+        h.append("<?xml version=\"1.0\"?>\n");
+        for (String c: comments) {
+            // "--" is not allowed inside XML comments
+            h.append("<!-- ").append(c.replace("--", "- -")).append(" -->\n");
+        }
+        h.append("<VTKFile type=\"UnstructuredGrid\" version=\"1.0\" byte_order=\"LittleEndian\" header_type=\"UInt64\">\n");
+        h.append("<UnstructuredGrid>\n");
+        h.append(String.format("<Piece NumberOfPoints=\"%d\" NumberOfCells=\"%d\">\n", npoints, ncells));
+
+        // Blocks of data are appended in the same order as they are declared here, each one after its size
+        var offset = 0L;
+        h.append("<Points>\n");
+        h.append(String.format("<DataArray type=\"Float64\" NumberOfComponents=\"3\" format=\"appended\" offset=\"%d\"/>\n", offset));
+        offset += 8 + 24 * npoints;
+        h.append("</Points>\n");
+        h.append("<Cells>\n");
+        h.append(String.format("<DataArray type=\"Int64\" Name=\"connectivity\" format=\"appended\" offset=\"%d\"/>\n", offset));
+        offset += 8 + 8 * nconn;
+        h.append(String.format("<DataArray type=\"Int64\" Name=\"offsets\" format=\"appended\" offset=\"%d\"/>\n", offset));
+        offset += 8 + 8 * ncells;
+        h.append(String.format("<DataArray type=\"UInt8\" Name=\"types\" format=\"appended\" offset=\"%d\"/>\n", offset));
+        offset += 8 + ncells;
+        h.append("</Cells>\n");
+        h.append("<PointData>\n");
+        for (DataArray d: pointData.values()) {
+            h.append(String.format("<DataArray type=\"%s\" Name=\"%s\" NumberOfComponents=\"1\" format=\"appended\" offset=\"%d\"/>\n", d.type(), escape(d.name), offset));
+            offset += 8 + d.size() * npoints;
+        }
+        h.append("</PointData>\n");
+        h.append("<CellData>\n");
+        for (DataArray d: cellData.values()) {
+            h.append(String.format("<DataArray type=\"%s\" Name=\"%s\" NumberOfComponents=\"1\" format=\"appended\" offset=\"%d\"/>\n", d.type(), escape(d.name), offset));
+            offset += 8 + d.size() * ncells;
+        }
+        h.append("</CellData>\n");
+        h.append("</Piece>\n");
+        h.append("</UnstructuredGrid>\n");
+        h.append("<AppendedData encoding=\"raw\">\n_");
+        return h.toString();
+    }
+
+    /** Writes the content of the buffer to the file */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /** Makes room for n bytes in the buffer, writing its content to the file if needed */
+    private void reserve(int n) throws IOException {
+        if (buffer.remaining() < n) flush();
+    }
+
+    private void putLong(long v) throws IOException {
+        reserve(8);
+        buffer.putLong(v);
+    }
+
+    private void putDouble(double v) throws IOException {
+        reserve(8);
+        buffer.putDouble(v);
+    }
+
+    private void putInt(int v) throws IOException {
+        reserve(4);
+        buffer.putInt(v);
+    }
+
+    /** Writes a block with the values of a variable, after its size */
+    private void putData(DataArray d, long n) throws IOException {
+        putLong(d.size() * n);
+        for (long i = 0; i < n; i++) {
+            if (d.ints != null) {
+                putInt(d.ints.get(i));
+            } else {
+                putDouble(d.values.get(i));
+            }
+        }
+    }
+
+    /**
+     * Writes the grid to a file.
+     *
+     * @return path to the file including its extension
+     * @throws IOException
+     */
+    public String write() throws IOException {
+        var full_path = path + ".vtu";
+        try (var ch = FileChannel.open(Paths.get(full_path), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel = ch;
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            var h = header().getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < h.length; i += BUFFER_SIZE) {
+                var n = Math.min(BUFFER_SIZE, h.length - i);
+                reserve(n);
+                buffer.put(h, i, n);
+            }
+
+            putLong(24 * npoints);
+            for (long i = 0; i < npoints; i++) {
+                putDouble(x.get(i));
+                putDouble(y.get(i));
+                putDouble(z.get(i));
+            }
+            putLong(8 * nconn);
+            for (long i = 0; i < nconn; i++) {
+                putLong(connectivity.get(i));
+            }
+            putLong(8 * ncells);
+            for (long i = 0; i < ncells; i++) {
+                putLong(offsets.get(i));
+            }
+            putLong(ncells);
+            for (long i = 0; i < ncells; i++) {
+                reserve(1);
+                buffer.put(cellType);
+            }
+            for (DataArray d: pointData.values()) {
+                putData(d, npoints);
+            }
+            for (DataArray d: cellData.values()) {
+                putData(d, ncells);
+            }
+
+            var footer = "\n</AppendedData>\n</VTKFile>\n".getBytes(StandardCharsets.UTF_8);
+            reserve(footer.length);
+            buffer.put(footer);
+            flush();
+        } finally {
+            channel = null;
+            buffer = null;
+        }
+        return full_path;
+    }
+}
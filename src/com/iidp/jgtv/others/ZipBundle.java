@@ -0,0 +1,319 @@
+/*
+ *  Copyright (C) 2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.jgtv.others;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Gives access to the files stored in a zip archive (e.g. a shapefile bundle
+ * with .shp, .shx, .dbf and .prj files) without extracting them to disk.
+ *
+ * The archive is mapped into memory (see MappedSource) and only its central directory
+ * is parsed when it is opened. Files stored without compression (STORED) are returned
+ * as a part of the mapped archive, so they are read without any copy. Compressed files
+ * (DEFLATED) are decompressed in memory when they are mapped, or while they are read
+ * if they are opened as a stream.
+ *
+ * REFERENCES:
+ *  - https://pkware.cachefly.net/webdocs/casestudies/APPNOTE.TXT
+ *
+ * NOTE: encrypted files and compression methods other than DEFLATE are not supported.
+ */
+public class ZipBundle {
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    /** A file in the archive, as described by the central directory */
+    private static class Entry {
+        String name;
+        int flags, method;
+        long compressedSize, size;
+        /** Position of the local header of the file in the archive */
+        long offset;
+    }
+
+    /** Path to the archive */
+    public final String src;
+    private final MappedSource source;
+    /** Files in the archive, in the same order as in the central directory */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    private ZipBundle(String _src, MappedSource _source) {
+        src = _src;
+        source = _source;
+    }
+
+    /** @return true if a path has the extension of a zip archive */
+    public static boolean isZip(String path) {
+        return path.toLowerCase().endsWith(".zip");
+    }
+
+    /**
+     * Opens a zip archive and reads the list of files that it contains.
+     *
+     * @param path path to the archive
+     * @return the opened archive
+     * @throws Exception if the file is not a zip archive
+     */
+    public static ZipBundle open(String path) throws Exception {
+        var zip = new ZipBundle(path, MappedSource.map(path));
+        zip.readCentralDirectory();
+        return zip;
+    }
+
+    /** Values in zip archives are little endian and unsigned */
+    private int getUShort(long pos) throws Exception {
+        var b = source.at(pos, 2).order(ByteOrder.LITTLE_ENDIAN);
+        return Short.toUnsignedInt(b.getShort(b.position()));
+    }
+
+    private int getInt(long pos) throws Exception {
+        var b = source.at(pos, 4).order(ByteOrder.LITTLE_ENDIAN);
+        return b.getInt(b.position());
+    }
+
+    private long getUInt(long pos) throws Exception {
+        return Integer.toUnsignedLong(getInt(pos));
+    }
+
+    private long getLong(long pos) throws Exception {
+        var b = source.at(pos, 8).order(ByteOrder.LITTLE_ENDIAN);
+        return b.getLong(b.position());
+    }
+
+    private void readCentralDirectory() throws Exception {
+        // The end of central directory record is at the end of the archive, after a comment of up to 64 KB
+        var pos = source.size - 22;
+        var min = Math.max(0, source.size - 22 - 0xFFFF);
+        while (pos >= min && getInt(pos) != END_SIGNATURE) {
+            pos -= 1;
+        }
+        if (pos < min) {
+            throw new Exception("Not a zip archive: " + src);
+        }
+        long nentries = getUShort(pos + 10);
+        long offset = getUInt(pos + 16);
+
+        // Archives with more than 65535 files or larger than 4 GB store these values in a ZIP64 record
+        if (nentries == 0xFFFF || offset == 0xFFFFFFFFL) {
+            if (pos < 20 || getInt(pos - 20) != ZIP64_LOCATOR_SIGNATURE) {
+                throw new Exception("Missing ZIP64 end of central directory in: " + src);
+            }
+            var end64 = getLong(pos - 20 + 8);
+            if (getInt(end64) != ZIP64_END_SIGNATURE) {
+                throw new Exception("Wrong ZIP64 end of central directory in: " + src);
+            }
+            nentries = getLong(end64 + 32);
+            offset = getLong(end64 + 48);
+        }
+
+        for (long i = 0; i < nentries; i++) {
+            if (getInt(offset) != CENTRAL_SIGNATURE) {
+                throw new Exception("Wrong central directory entry in: " + src);
+            }
+            var e = new Entry();
+            e.flags = getUShort(offset + 8);
+            e.method = getUShort(offset + 10);
+            e.compressedSize = getUInt(offset + 20);
+            e.size = getUInt(offset + 24);
+            var nameLength = getUShort(offset + 28);
+            var extraLength = getUShort(offset + 30);
+            var commentLength = getUShort(offset + 32);
+            e.offset = getUInt(offset + 42);
+
+            var bytes = new byte[nameLength];
+            source.at(offset + 46, nameLength).get(bytes);
+            // Bit 11 of flags indicates UTF-8 names, otherwise names are usually ASCII
+            e.name = new String(bytes, ((e.flags & 0x800) != 0) ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+
+            readZip64Extra(e, offset + 46 + nameLength, extraLength);
+            entries.put(e.name, e);
+            offset += 46 + nameLength + extraLength + commentLength;
+        }
+    }
+
+    /** Reads sizes and offset that do not fit in 32 bits from the ZIP64 extra field of an entry */
+    private void readZip64Extra(Entry e, long pos, int length) throws Exception {
+        var end = pos + length;
+        while (pos + 4 <= end) {
+            var id = getUShort(pos);
+            var size = getUShort(pos + 2);
+            if (id == 0x0001) {
+                // Only values that are set to 0xFFFFFFFF in the entry are included, in this order
+                var q = pos + 4;
+                if (e.size == 0xFFFFFFFFL) { e.size = getLong(q); q += 8; }
+                if (e.compressedSize == 0xFFFFFFFFL) { e.compressedSize = getLong(q); q += 8; }
+                if (e.offset == 0xFFFFFFFFL) { e.offset = getLong(q); }
+            }
+            pos += 4 + size;
+        }
+    }
+
+    /** @return names of all files in the archive, including their directory */
+    public List<String> getNames() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    /**
+     * Returns the names of the files in the archive with an extension, e.g. all .shp files.
+     * Extensions are compared ignoring case.
+     *
+     * @param extension extension without dot, e.g. shp
+     * @return list of names
+     */
+    public List<String> getNames(String extension) {
+        var names = new ArrayList<String>();
+        for (String name: entries.keySet()) {
+            if (name.toLowerCase().endsWith("." + extension.toLowerCase())) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Finds the name of a file in the archive ignoring case, e.g. to find the .dbf
+     * file of a .shp file with FilePath.replaceExtension.
+     *
+     * @param name name of the file including its directory
+     * @return name of the file as stored in the archive, or null if it does not exist
+     */
+    public String find(String name) {
+        if (entries.containsKey(name)) return name;
+        for (String n: entries.keySet()) {
+            if (n.equalsIgnoreCase(name)) return n;
+        }
+        return null;
+    }
+
+    public boolean contains(String name) {
+        return find(name) != null;
+    }
+
+    private Entry getEntry(String name) throws Exception {
+        var n = find(name);
+        if (n == null) {
+            throw new Exception("File " + name + " does not exist in: " + src);
+        }
+        var e = entries.get(n);
+        if ((e.flags & 0x1) != 0) {
+            throw new Exception("Encrypted files are not supported: " + name);
+        }
+        if (e.method != STORED && e.method != DEFLATED) {
+            throw new Exception("Unsupported compression method " + e.method + " of: " + name);
+        }
+        return e;
+    }
+
+    /** @return part of the archive with the (compressed) content of a file */
+    private MappedSource getData(Entry e) throws Exception {
+        // The extra field of the local header can be different from the one in the central directory
+        if (getInt(e.offset) != LOCAL_SIGNATURE) {
+            throw new Exception("Wrong local header of " + e.name + " in: " + src);
+        }
+        var nameLength = getUShort(e.offset + 26);
+        var extraLength = getUShort(e.offset + 28);
+        return source.slice(e.offset + 30 + nameLength + extraLength, e.compressedSize);
+    }
+
+    /**
+     * Returns the content of a file in the archive as a MappedSource, so it can be used by
+     * readers of mapped files. Files that are not compressed are a part of the mapped archive.
+     * Compressed files are decompressed in memory, so they should be smaller than 2 GB.
+     *
+     * @param name name of the file including its directory
+     * @return content of the file
+     * @throws Exception
+     */
+    public MappedSource map(String name) throws Exception {
+        var e = getEntry(name);
+        var data = getData(e);
+        if (e.method == STORED) {
+            return data;
+        }
+
+        if (e.size > Integer.MAX_VALUE) {
+            throw new Exception("Compressed file too large to decompress in memory: " + name);
+        }
+        var out = ByteBuffer.allocate((int) e.size);
+        var inflater = new Inflater(true);
+        try {
+            var pos = 0L;
+            while (out.hasRemaining() && !inflater.finished()) {
+                if (inflater.needsInput()) {
+                    var n = (int) Math.min(1 << 20, data.size - pos);
+                    if (n <= 0) break;
+                    inflater.setInput(data.at(pos, n).slice().limit(n));
+                    pos += n;
+                }
+                inflater.inflate(out);
+            }
+        } finally {
+            inflater.end();
+        }
+        if (out.hasRemaining()) {
+            throw new Exception("Truncated compressed file " + name + " in: " + src);
+        }
+        return MappedSource.wrap(src + "/" + name, out.flip());
+    }
+
+    /**
+     * Opens a file in the archive as a stream, e.g. to use it with parsers that read from
+     * a DataInputStream. Compressed files are decompressed while they are read.
+     *
+     * @param name name of the file including its directory
+     * @return stream with the content of the file
+     * @throws Exception
+     */
+    public InputStream getInputStream(String name) throws Exception {
+        var e = getEntry(name);
+        var in = getData(e).toInputStream();
+        if (e.method == STORED) {
+            return in;
+        }
+        return new InflaterInputStream(in, new Inflater(true), 1 << 16);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d files", src, entries.size());
+    }
+
+    public static void main(String[] args) throws Exception {
+        var path = (args.length > 0) ? args[0] : "tmp/bundle.zip";
+        var zip = open(path);
+        System.out.println(zip);
+        for (String name: zip.getNames()) {
+            var e = zip.entries.get(name);
+            System.out.printf("  %-40s %s %12d %12d\n", name, (e.method == STORED) ? "STORED  " : "DEFLATED", e.compressedSize, e.size);
+        }
+        System.out.println("*** ALL DONE ***");
+    }
+}